@@ -0,0 +1,112 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+
+/**
+ * Host-level circuit breaker. After {@code failureThreshold} consecutive failures it opens and
+ * rejects all traffic; once the open period expires a single probe request is let through,
+ * which either closes the breaker again or re-opens it for twice as long.
+ */
+public class CircuitBreaker {
+    private static final long PROBE_TIMEOUT_MILLIS = 60_000;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public enum Permit {
+        DENIED,
+        GRANTED,
+        // The single request let through to find out whether the host is back
+        PROBE;
+
+        public boolean isGranted() {
+            return this != DENIED;
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int openCount = 0;
+    private long openUntil = 0;
+    private long probeStartedAt = 0;
+
+    public CircuitBreaker(String name, int failureThreshold, long baseOpenMillis, long maxOpenMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    /**
+     * Whether a request may go out now. While half-open this hands out the single probe, which
+     * only its holder may {@link #releaseProbe() release}.
+     */
+    public synchronized Permit tryAcquire() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return Permit.GRANTED;
+            case OPEN:
+                if (now < openUntil) {
+                    return Permit.DENIED;
+                }
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                return Permit.PROBE;
+            default:
+                // A probe that never reported back must not wedge the breaker
+                if (now - probeStartedAt > PROBE_TIMEOUT_MILLIS) {
+                    probeStartedAt = now;
+                    return Permit.PROBE;
+                }
+                return Permit.DENIED;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * Earliest time at which the breaker will let a request through again.
+     */
+    public synchronized long getRetryAt() {
+        return state == State.OPEN ? openUntil : System.currentTimeMillis();
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            LostCompassMapMod.LOGGER.info("{} is reachable again", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openCount = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            openCount++;
+            long openMillis = Math.min(maxOpenMillis, baseOpenMillis << Math.min(openCount - 1, 20));
+            openUntil = System.currentTimeMillis() + openMillis;
+            if (state == State.CLOSED) {
+                LostCompassMapMod.LOGGER.warn("{} is failing, pausing requests for {}s", name, openMillis / 1000);
+            }
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * Hands back a probe that was cancelled before it learned anything about the host.
+     */
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis();
+        }
+    }
+}
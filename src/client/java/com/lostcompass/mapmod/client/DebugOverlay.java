@@ -0,0 +1,166 @@
+package com.lostcompass.mapmod.client;
+
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Live map subsystem metrics, drawn in the bottom-left corner over the HUD and the full map
+ * while toggled on. The text is rebuilt once a second from {@link MapMetrics} snapshots over
+ * the last {@value #WINDOW_SECONDS} seconds; other frames just draw the cached lines.
+ * Render thread only.
+ */
+public class DebugOverlay {
+    private static final int WINDOW_SECONDS = 10;
+    private static final long REFRESH_NANOS = 1_000_000_000L;
+    private static final int PADDING = 4;
+    private static final int LINE_HEIGHT = 10;
+
+    private final TileManager tileManager;
+    private final MarkerManager markerManager;
+    private final MapMetrics metrics;
+
+    private boolean enabled = false;
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+    private final List<String> lines = new ArrayList<>();
+    private int linesWidth = 0;
+    private long refreshedAt = 0;
+
+    private record Sample(MapMetrics.Snapshot metrics, TileCache.Usage cache) {}
+
+    public DebugOverlay(TileManager tileManager, MarkerManager markerManager) {
+        this.tileManager = tileManager;
+        this.markerManager = markerManager;
+        this.metrics = tileManager.getMetrics();
+    }
+
+    public void toggle() {
+        enabled = !enabled;
+        // Start a fresh window so stale samples don't skew the first readings
+        samples.clear();
+        lines.clear();
+        refreshedAt = 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void render(DrawContext context, TextRenderer textRenderer, int screenHeight) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lines.isEmpty() || now - refreshedAt >= REFRESH_NANOS) {
+            refresh(textRenderer);
+            refreshedAt = now;
+        }
+
+        int height = lines.size() * LINE_HEIGHT + PADDING * 2;
+        int top = screenHeight - height - PADDING;
+        context.fill(PADDING, top, PADDING + linesWidth + PADDING * 2, top + height, 0xC0000000);
+        for (int i = 0; i < lines.size(); i++) {
+            context.drawText(textRenderer, lines.get(i), PADDING * 2, top + PADDING + i * LINE_HEIGHT,
+                    i == 0 ? 0xFFFFFF55 : 0xFFE0E0E0, false);
+        }
+    }
+
+    private void refresh(TextRenderer textRenderer) {
+        Sample latest = new Sample(metrics.snapshot(), tileManager.getCacheUsage());
+        samples.addLast(latest);
+        while (samples.size() > WINDOW_SECONDS + 1) {
+            samples.removeFirst();
+        }
+        Sample oldest = samples.getFirst();
+        MapMetrics.Snapshot now = latest.metrics();
+        MapMetrics.Snapshot then = oldest.metrics();
+        double seconds = now.secondsSince(then);
+        TileCache.Usage cache = latest.cache();
+        TileCache.Usage cacheThen = oldest.cache();
+        TileFetchScheduler scheduler = tileManager.getScheduler();
+
+        lines.clear();
+        lines.add(format("LostCompass map (last %ds)", Math.round(seconds)));
+
+        long hits = cache.hits() - cacheThen.hits();
+        long misses = cache.misses() - cacheThen.misses();
+        long lookups = hits + misses;
+        lines.add(format("Cache: %d tiles  hit %s  %s miss/s  %s evict/s",
+                cache.entries(), lookups > 0 ? format("%.1f%%", 100.0 * hits / lookups) : "-",
+                perSecond(misses, seconds), perSecond(cache.evictions() - cacheThen.evictions(), seconds)));
+        lines.add(format("Memory: CPU %d/%d MiB  GPU %d/%d MiB  atlas %d pages",
+                cache.cpuBytes() >> 20, cache.cpuBudget() >> 20, cache.gpuBytes() >> 20, cache.gpuBudget() >> 20,
+                tileManager.getAtlas().getPageCount()));
+        lines.add(format("Fetch: %d queued  %d in flight  %d upload  %s",
+                scheduler.getQueuedCount(), scheduler.getInFlightCount(), tileManager.getUploadQueueSize(),
+                tileManager.isServerUnavailable() ? "server down" : "server ok"));
+        lines.add(format("Download: tiles %s/s (%s total)  markers %s/s (%s total)",
+                bytes((long) now.rate(MapMetrics.Counter.TILE_BYTES, then)),
+                bytes(now.get(MapMetrics.Counter.TILE_BYTES)),
+                bytes((long) now.rate(MapMetrics.Counter.MARKER_BYTES, then)),
+                bytes(now.get(MapMetrics.Counter.MARKER_BYTES))));
+        lines.add(format("Refresh: %d unchanged  %d replaced",
+                now.get(MapMetrics.Counter.TILES_UNCHANGED), now.get(MapMetrics.Counter.TILES_REPLACED)));
+        lines.add("Fetch latency: " + timing(now, then, MapMetrics.Timer.FETCH));
+        lines.add("Decode: " + timing(now, then, MapMetrics.Timer.DECODE));
+        lines.add("Upload: " + timing(now, then, MapMetrics.Timer.UPLOAD));
+        long registered = now.get(MapMetrics.Counter.TEXTURES_REGISTERED);
+        long destroyed = now.get(MapMetrics.Counter.TEXTURES_DESTROYED);
+        lines.add(format("Textures: %d registered  %d destroyed  %d live",
+                registered, destroyed, registered - destroyed));
+        lines.add("Minimap frame: " + timing(now, then, MapMetrics.Timer.MINIMAP_FRAME));
+        lines.add("Map frame: " + timing(now, then, MapMetrics.Timer.MAP_FRAME));
+        lines.add(format("Player poll: %s  (%d players)", timing(now, then, MapMetrics.Timer.PLAYER_POLL),
+                markerManager.getPlayers().size()));
+        lines.add(format("Town poll: %s  (%d towns)", timing(now, then, MapMetrics.Timer.TOWN_POLL),
+                markerManager.getTownIndex().size()));
+
+        linesWidth = 0;
+        for (String line : lines) {
+            linesWidth = Math.max(linesWidth, textRenderer.getWidth(line));
+        }
+    }
+
+    private static String timing(MapMetrics.Snapshot now, MapMetrics.Snapshot then, MapMetrics.Timer timer) {
+        long count = now.count(timer, then);
+        if (count == 0) {
+            return "-";
+        }
+        return "p50 " + micros(now.percentileMicros(timer, 50, then))
+                + "  p95 " + micros(now.percentileMicros(timer, 95, then))
+                + "  max " + micros(now.percentileMicros(timer, 100, then))
+                + "  n=" + count;
+    }
+
+    private static String micros(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        if (micros < 10_000) {
+            return format("%.1fms", micros / 1000.0);
+        }
+        return (micros / 1000) + "ms";
+    }
+
+    private static String perSecond(long count, double seconds) {
+        return seconds > 0 ? format("%.1f", count / seconds) : "-";
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return format("%.1f KiB", bytes / 1024.0);
+        }
+        return format("%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+}
@@ -3,6 +3,7 @@ package com.lostcompass.mapmod.client;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.input.KeyInput;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.option.KeyBinding.Category;
 import net.minecraft.client.util.InputUtil;
@@ -13,6 +14,7 @@ public class KeyBindings {
     private static KeyBinding toggleMinimapKey;
     private static KeyBinding zoomInKey;
     private static KeyBinding zoomOutKey;
+    private static KeyBinding toggleDebugKey;
 
     public static void register() {
         openMapKey = KeyBindingHelper.registerKeyBinding(new KeyBinding(
@@ -43,6 +45,13 @@ public class KeyBindings {
                 Category.MISC
         ));
 
+        toggleDebugKey = KeyBindingHelper.registerKeyBinding(new KeyBinding(
+                "key.lostcompassmap.toggle_debug",
+                InputUtil.Type.KEYSYM,
+                GLFW.GLFW_KEY_F7,
+                Category.MISC
+        ));
+
         ClientTickEvents.END_CLIENT_TICK.register(KeyBindings::onClientTick);
     }
 
@@ -66,6 +75,24 @@ public class KeyBindings {
         while (zoomOutKey.wasPressed()) {
             zoomOut();
         }
+
+        while (toggleDebugKey.wasPressed()) {
+            toggleDebugOverlay();
+        }
+    }
+
+    /**
+     * Screens receive keys directly instead of through bindings, so the map screen asks here.
+     */
+    public static boolean isToggleDebugKey(KeyInput keyInput) {
+        return toggleDebugKey != null && toggleDebugKey.matchesKey(keyInput);
+    }
+
+    public static void toggleDebugOverlay() {
+        DebugOverlay overlay = LostCompassMapClient.getDebugOverlay();
+        if (overlay != null) {
+            overlay.toggle();
+        }
     }
 
     private static void openFullMap(MinecraftClient client) {
@@ -0,0 +1,265 @@
+package com.lostcompass.mapmod.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Places town markers and their name labels for the full map. Labels are placed in priority
+ * order (capitals first, then by resident count) and a label that would overlap one already
+ * placed is dropped, using a screen-space grid so each test only looks at nearby labels.
+ * <p>
+ * The placement is kept until the view moves by a pixel, the zoom or screen size changes, or
+ * the town data is replaced, so an idle map redraws from the cached arrays. Text is truncated
+ * and measured once per name, and towns are ranked once per town data, so re-placing them
+ * while the view pans allocates nothing.
+ */
+public class LabelLayout {
+    private static final int MAX_NAME_CHARS = 12;
+    private static final int CELL_SIZE = 32;
+    private static final int LABEL_PADDING = 2;
+    private static final int MAX_CACHED_LABELS = 8192;
+
+    private static final Comparator<MarkerManager.TownMarker> PRIORITY =
+            Comparator.comparing((MarkerManager.TownMarker town) -> !isCapital(town))
+                    .thenComparing(Comparator.comparingInt(MarkerManager.TownMarker::residents).reversed())
+                    .thenComparing(MarkerManager.TownMarker::name);
+
+    /**
+     * A name as drawn, with its measured width.
+     */
+    public record Label(String text, int width) {}
+
+    private final Map<String, Label> labels = new HashMap<>();
+    private final Map<String, Label> playerLabels = new HashMap<>();
+    private final List<MarkerManager.TownMarker> candidates = new ArrayList<>();
+    // Each town's position in priority order, for the town data it was computed from
+    private final Map<MarkerManager.TownMarker, Integer> ranks = new IdentityHashMap<>();
+    private MarkerIndex<MarkerManager.TownMarker> rankedIndex;
+    // Candidates to place, as rank << 32 | candidate index, sorted without a comparator
+    private long[] order = new long[64];
+
+    // View the current placement was computed for
+    private long viewPixelX;
+    private long viewPixelZ;
+    private int viewZoom = Integer.MIN_VALUE;
+    private int viewWidth;
+    private int viewHeight;
+    private int viewTownVersion = -1;
+
+    // Placed towns in priority order; label is null where it was decluttered away
+    private MarkerManager.TownMarker[] towns = new MarkerManager.TownMarker[64];
+    private int[] townX = new int[64];
+    private int[] townY = new int[64];
+    private Label[] townLabels = new Label[64];
+    private int townCount = 0;
+
+    // Collision grid: per-cell linked lists of placed label rects
+    private int[] cellHeads = new int[0];
+    private int[] rectNext = new int[64];
+    private int[] rects = new int[64 * 4];
+    private int rectCount = 0;
+    private int cellsX;
+    private int cellsY;
+
+    public static boolean isCapital(MarkerManager.TownMarker town) {
+        return town.type().contains("capital");
+    }
+
+    /**
+     * The label for a name, truncated to fit and measured once.
+     */
+    public Label label(TextMetrics text, String name) {
+        Label label = labels.get(name);
+        if (label == null) {
+            if (labels.size() >= MAX_CACHED_LABELS) {
+                labels.clear();
+            }
+            String truncated = name.length() > MAX_NAME_CHARS ? name.substring(0, MAX_NAME_CHARS) + ".." : name;
+            label = new Label(truncated, text.width(truncated));
+            labels.put(name, label);
+        }
+        return label;
+    }
+
+    /**
+     * A player name label, measured once. Player names are short enough to show in full.
+     */
+    public Label playerLabel(TextMetrics text, String name) {
+        Label label = playerLabels.get(name);
+        if (label == null) {
+            if (playerLabels.size() >= MAX_CACHED_LABELS) {
+                playerLabels.clear();
+            }
+            label = new Label(name, text.width(name));
+            playerLabels.put(name, label);
+        }
+        return label;
+    }
+
+    /**
+     * Re-places towns if the view changed since the last layout.
+     *
+     * @return whether a new layout was computed
+     */
+    public boolean update(TextMetrics text, MarkerIndex<MarkerManager.TownMarker> index,
+                          double viewCenterX, double viewCenterZ, double pixelsPerBlock,
+                          int zoom, int width, int height) {
+        long pixelX = Math.round(viewCenterX * pixelsPerBlock);
+        long pixelZ = Math.round(viewCenterZ * pixelsPerBlock);
+        if (pixelX == viewPixelX && pixelZ == viewPixelZ && zoom == viewZoom
+                && width == viewWidth && height == viewHeight && index.getVersion() == viewTownVersion) {
+            return false;
+        }
+        viewPixelX = pixelX;
+        viewPixelZ = pixelZ;
+        viewZoom = zoom;
+        viewWidth = width;
+        viewHeight = height;
+        viewTownVersion = index.getVersion();
+
+        double halfWidthBlocks = width / 2.0 / pixelsPerBlock;
+        double halfHeightBlocks = height / 2.0 / pixelsPerBlock;
+        candidates.clear();
+        int found = index.query(viewCenterX - halfWidthBlocks, viewCenterZ - halfHeightBlocks,
+                viewCenterX + halfWidthBlocks, viewCenterZ + halfHeightBlocks, candidates);
+        rank(index);
+        if (order.length < found) {
+            order = new long[Math.max(found, order.length * 2)];
+        }
+        for (int i = 0; i < found; i++) {
+            order[i] = (long) ranks.get(candidates.get(i)) << 32 | i;
+        }
+        Arrays.sort(order, 0, found);
+
+        resetGrid(width, height);
+        ensureTownCapacity(found);
+        townCount = 0;
+        for (int i = 0; i < found; i++) {
+            MarkerManager.TownMarker town = candidates.get((int) order[i]);
+            int x = (int) (width / 2.0 + (town.x() - viewCenterX) * pixelsPerBlock);
+            int y = (int) (height / 2.0 + (town.z() - viewCenterZ) * pixelsPerBlock);
+            if (x < 0 || x > width || y < 0 || y > height) {
+                continue;
+            }
+
+            Label label = label(text, town.name());
+            int labelX = x - label.width() / 2;
+            int labelY = y + markerSize(town) + 2;
+            boolean placed = tryPlace(labelX - LABEL_PADDING, labelY - LABEL_PADDING,
+                    labelX + label.width() + LABEL_PADDING, labelY + text.fontHeight() + LABEL_PADDING);
+
+            towns[townCount] = town;
+            townX[townCount] = x;
+            townY[townCount] = y;
+            townLabels[townCount] = placed ? label : null;
+            townCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Ranks every town in the index by priority, once per index.
+     */
+    private void rank(MarkerIndex<MarkerManager.TownMarker> index) {
+        if (index == rankedIndex) {
+            return;
+        }
+        rankedIndex = index;
+        List<MarkerManager.TownMarker> sorted = new ArrayList<>(index.all());
+        sorted.sort(PRIORITY);
+        ranks.clear();
+        for (int i = 0; i < sorted.size(); i++) {
+            ranks.put(sorted.get(i), i);
+        }
+    }
+
+    public static int markerSize(MarkerManager.TownMarker town) {
+        return isCapital(town) ? 5 : 4;
+    }
+
+    private void resetGrid(int width, int height) {
+        cellsX = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        cellsY = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+        if (cellHeads.length < cellsX * cellsY) {
+            cellHeads = new int[cellsX * cellsY];
+        }
+        Arrays.fill(cellHeads, 0, cellsX * cellsY, -1);
+        rectCount = 0;
+    }
+
+    private boolean tryPlace(int x0, int y0, int x1, int y1) {
+        int cx0 = Math.clamp(Math.floorDiv(x0, CELL_SIZE), 0, cellsX - 1);
+        int cy0 = Math.clamp(Math.floorDiv(y0, CELL_SIZE), 0, cellsY - 1);
+        int cx1 = Math.clamp(Math.floorDiv(x1, CELL_SIZE), 0, cellsX - 1);
+        int cy1 = Math.clamp(Math.floorDiv(y1, CELL_SIZE), 0, cellsY - 1);
+
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int r = cellHeads[cy * cellsX + cx]; r >= 0; r = rectNext[r]) {
+                    int i = r * 4;
+                    if (x0 < rects[i + 2] && rects[i] < x1 && y0 < rects[i + 3] && rects[i + 1] < y1) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        // A rect is linked into every cell it covers, one list node per cell
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (rectCount == rectNext.length) {
+                    rectNext = Arrays.copyOf(rectNext, rectCount * 2);
+                    rects = Arrays.copyOf(rects, rectCount * 8);
+                }
+                int i = rectCount * 4;
+                rects[i] = x0;
+                rects[i + 1] = y0;
+                rects[i + 2] = x1;
+                rects[i + 3] = y1;
+                int cell = cy * cellsX + cx;
+                rectNext[rectCount] = cellHeads[cell];
+                cellHeads[cell] = rectCount;
+                rectCount++;
+            }
+        }
+        return true;
+    }
+
+    private void ensureTownCapacity(int capacity) {
+        if (capacity > towns.length) {
+            int size = Math.max(capacity, towns.length * 2);
+            towns = Arrays.copyOf(towns, size);
+            townX = Arrays.copyOf(townX, size);
+            townY = Arrays.copyOf(townY, size);
+            townLabels = Arrays.copyOf(townLabels, size);
+        }
+    }
+
+    public int getTownCount() {
+        return townCount;
+    }
+
+    public MarkerManager.TownMarker getTown(int index) {
+        return towns[index];
+    }
+
+    public int getTownX(int index) {
+        return townX[index];
+    }
+
+    public int getTownY(int index) {
+        return townY[index];
+    }
+
+    /**
+     * The town's label, or null if it was dropped to avoid overlapping a higher-priority one.
+     */
+    public Label getTownLabel(int index) {
+        return townLabels[index];
+    }
+}
@@ -3,13 +3,17 @@ package com.lostcompass.mapmod.client;
 import com.lostcompass.mapmod.LostCompassMapMod;
 import com.lostcompass.mapmod.config.ModConfig;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.minecraft.client.MinecraftClient;
 
 public class LostCompassMapClient implements ClientModInitializer {
+    private static MapHttpClient httpClient;
     private static TileManager tileManager;
     private static MapRenderer mapRenderer;
     private static MarkerManager markerManager;
+    private static DebugOverlay debugOverlay;
+    private static RegionDownloader regionDownloader;
     private static ModConfig config;
 
     @Override
@@ -17,12 +21,26 @@ public class LostCompassMapClient implements ClientModInitializer {
         LostCompassMapMod.LOGGER.info("Initializing LostCompass Map Client");
 
         config = new ModConfig();
-        tileManager = new TileManager(config);
-        markerManager = new MarkerManager(config);
+        httpClient = new MapHttpClient(config);
+        MapMetrics metrics = new MapMetrics();
+        tileManager = new TileManager(config, httpClient, metrics);
+        markerManager = new MarkerManager(config, httpClient, metrics);
         mapRenderer = new MapRenderer(tileManager, markerManager, config);
+        debugOverlay = new DebugOverlay(tileManager, markerManager);
+        regionDownloader = new RegionDownloader(tileManager, config);
 
         KeyBindings.register();
+        MapCommands.register();
         HudRenderCallback.EVENT.register(mapRenderer::render);
+        HudRenderCallback.EVENT.register((context, tickCounter) -> {
+            MinecraftClient client = MinecraftClient.getInstance();
+            // The map screen draws the overlay itself, over the map
+            if (client.currentScreen == null) {
+                debugOverlay.render(context, client.textRenderer, context.getScaledWindowHeight());
+            }
+        });
+
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> shutdown());
 
         // Set max brightness
         MinecraftClient.getInstance().execute(() -> {
@@ -35,6 +53,18 @@ public class LostCompassMapClient implements ClientModInitializer {
         LostCompassMapMod.LOGGER.info("LostCompass Map Client initialized");
     }
 
+    /**
+     * Stops downloads and polling and releases the map's threads, files and textures. Fetches
+     * are stopped before the HTTP client they run on.
+     */
+    private static void shutdown() {
+        regionDownloader.cancel();
+        mapRenderer.close();
+        markerManager.shutdown();
+        tileManager.shutdown();
+        httpClient.shutdown();
+    }
+
     public static TileManager getTileManager() {
         return tileManager;
     }
@@ -47,6 +77,14 @@ public class LostCompassMapClient implements ClientModInitializer {
         return markerManager;
     }
 
+    public static DebugOverlay getDebugOverlay() {
+        return debugOverlay;
+    }
+
+    public static RegionDownloader getRegionDownloader() {
+        return regionDownloader;
+    }
+
     public static ModConfig getConfig() {
         return config;
     }
@@ -0,0 +1,236 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.lostcompass.mapmod.config.ModConfig;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.argument;
+import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.literal;
+
+public class MapCommands {
+    private static final ExecutorService packExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LostCompass map pack IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void register() {
+        ClientCommandRegistrationCallback.EVENT.register((dispatcher, registryAccess) -> dispatcher.register(
+                literal("lostcompassmap")
+                        .then(literal("pack")
+                                .then(literal("export")
+                                        .then(argument("name", StringArgumentType.word())
+                                                .executes(MapCommands::exportPack)))
+                                .then(literal("import")
+                                        .then(argument("name", StringArgumentType.word())
+                                                .executes(MapCommands::importPack))))
+                        .then(literal("download")
+                                .then(literal("area")
+                                        .then(argument("x1", IntegerArgumentType.integer())
+                                                .then(argument("z1", IntegerArgumentType.integer())
+                                                        .then(argument("x2", IntegerArgumentType.integer())
+                                                                .then(argument("z2", IntegerArgumentType.integer())
+                                                                        .executes(context -> downloadArea(context, false))
+                                                                        .then(argument("minZoom", IntegerArgumentType.integer())
+                                                                                .then(argument("maxZoom", IntegerArgumentType.integer())
+                                                                                        .executes(context -> downloadArea(context, true)))))))))
+                                .then(literal("around")
+                                        .then(argument("radius", IntegerArgumentType.integer(1))
+                                                .executes(context -> downloadAround(context, false))
+                                                .then(argument("minZoom", IntegerArgumentType.integer())
+                                                        .then(argument("maxZoom", IntegerArgumentType.integer())
+                                                                .executes(context -> downloadAround(context, true))))))
+                                .then(literal("pause").executes(MapCommands::pauseDownload))
+                                .then(literal("resume").executes(MapCommands::resumeDownload))
+                                .then(literal("cancel").executes(MapCommands::cancelDownload))
+                                .then(literal("status").executes(MapCommands::downloadStatus)))
+        ));
+    }
+
+    private static Path packPath(String name) {
+        return FabricLoader.getInstance().getGameDir()
+                .resolve(LostCompassMapMod.MOD_ID)
+                .resolve("packs")
+                .resolve(name + MapPack.EXTENSION);
+    }
+
+    private static TileDiskCache diskCache(FabricClientCommandSource source) {
+        TileManager tileManager = LostCompassMapClient.getTileManager();
+        TileDiskCache diskCache = tileManager != null ? tileManager.getDiskCache() : null;
+        if (diskCache == null) {
+            source.sendError(Text.literal("The tile disk cache is disabled"));
+        }
+        return diskCache;
+    }
+
+    private static boolean validName(FabricClientCommandSource source, String name) {
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            source.sendError(Text.literal("Pack names may only use letters, digits, '_' and '-'"));
+            return false;
+        }
+        return true;
+    }
+
+    private static int exportPack(CommandContext<FabricClientCommandSource> context) {
+        FabricClientCommandSource source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+        TileDiskCache diskCache = diskCache(source);
+        if (diskCache == null || !validName(source, name)) {
+            return 0;
+        }
+
+        Path target = packPath(name);
+        source.sendFeedback(Text.literal("Exporting map pack '" + name + "'..."));
+        packExecutor.execute(() -> {
+            try {
+                MapPack.Result result = MapPack.export(diskCache, target);
+                reply(source, Text.literal("Exported " + result.tiles() + " tiles in "
+                        + result.regions() + " regions to " + target.getFileName()), false);
+            } catch (Exception e) {
+                LostCompassMapMod.LOGGER.warn("Failed to export map pack {}: {}", name, e.getMessage());
+                reply(source, Text.literal("Map pack export failed: " + e.getMessage()), true);
+            }
+        });
+        return 1;
+    }
+
+    private static int importPack(CommandContext<FabricClientCommandSource> context) {
+        FabricClientCommandSource source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+        TileDiskCache diskCache = diskCache(source);
+        if (diskCache == null || !validName(source, name)) {
+            return 0;
+        }
+
+        Path pack = packPath(name);
+        if (!Files.isRegularFile(pack)) {
+            source.sendError(Text.literal("No map pack at " + pack));
+            return 0;
+        }
+
+        source.sendFeedback(Text.literal("Importing map pack '" + name + "'..."));
+        packExecutor.execute(() -> {
+            try {
+                MapPack.Result result = MapPack.importInto(diskCache, pack);
+                reply(source, Text.literal("Imported " + result.tiles() + " tiles from "
+                        + result.regions() + " regions"), false);
+            } catch (Exception e) {
+                LostCompassMapMod.LOGGER.warn("Failed to import map pack {}: {}", name, e.getMessage());
+                reply(source, Text.literal("Map pack import failed: " + e.getMessage()), true);
+            }
+        });
+        return 1;
+    }
+
+    private static int downloadArea(CommandContext<FabricClientCommandSource> context, boolean withZooms) {
+        return startDownload(context.getSource(),
+                IntegerArgumentType.getInteger(context, "x1"), IntegerArgumentType.getInteger(context, "z1"),
+                IntegerArgumentType.getInteger(context, "x2"), IntegerArgumentType.getInteger(context, "z2"),
+                context, withZooms);
+    }
+
+    private static int downloadAround(CommandContext<FabricClientCommandSource> context, boolean withZooms) {
+        FabricClientCommandSource source = context.getSource();
+        int radius = IntegerArgumentType.getInteger(context, "radius");
+        int x = (int) Math.floor(source.getPlayer().getX());
+        int z = (int) Math.floor(source.getPlayer().getZ());
+        return startDownload(source, x - radius, z - radius, x + radius, z + radius, context, withZooms);
+    }
+
+    private static int startDownload(FabricClientCommandSource source, int x1, int z1, int x2, int z2,
+                                     CommandContext<FabricClientCommandSource> context, boolean withZooms) {
+        RegionDownloader downloader = LostCompassMapClient.getRegionDownloader();
+        if (downloader == null) {
+            return 0;
+        }
+        ModConfig config = LostCompassMapClient.getConfig();
+        int minZoom = withZooms ? IntegerArgumentType.getInteger(context, "minZoom") : config.getServerMinZoom();
+        int maxZoom = withZooms ? IntegerArgumentType.getInteger(context, "maxZoom") : config.getServerMaxZoom();
+
+        RegionDownloader.Region region = new RegionDownloader.Region(x1, z1, x2, z2, minZoom, maxZoom);
+        try {
+            RegionDownloader.Progress progress = downloader.start(region,
+                    finished -> reply(source, Text.literal(describe(finished)), false));
+            source.sendFeedback(Text.literal("Downloading " + progress.total() + " tiles (zoom " + minZoom + " to "
+                    + maxZoom + ") at up to " + config.getDownloadRequestsPerSecond() + " requests/s"));
+            return 1;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            source.sendError(Text.literal(e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int pauseDownload(CommandContext<FabricClientCommandSource> context) {
+        RegionDownloader downloader = LostCompassMapClient.getRegionDownloader();
+        if (downloader == null || !downloader.pause()) {
+            context.getSource().sendError(Text.literal("No region download is running"));
+            return 0;
+        }
+        context.getSource().sendFeedback(Text.literal("Region download paused"));
+        return 1;
+    }
+
+    private static int resumeDownload(CommandContext<FabricClientCommandSource> context) {
+        RegionDownloader downloader = LostCompassMapClient.getRegionDownloader();
+        if (downloader == null || !downloader.resume()) {
+            context.getSource().sendError(Text.literal("No region download is paused"));
+            return 0;
+        }
+        context.getSource().sendFeedback(Text.literal("Region download resumed"));
+        return 1;
+    }
+
+    private static int cancelDownload(CommandContext<FabricClientCommandSource> context) {
+        RegionDownloader downloader = LostCompassMapClient.getRegionDownloader();
+        if (downloader == null || !downloader.cancel()) {
+            context.getSource().sendError(Text.literal("No region download is in progress"));
+            return 0;
+        }
+        return 1;
+    }
+
+    private static int downloadStatus(CommandContext<FabricClientCommandSource> context) {
+        RegionDownloader downloader = LostCompassMapClient.getRegionDownloader();
+        RegionDownloader.Progress progress = downloader != null ? downloader.getProgress() : null;
+        if (progress == null) {
+            context.getSource().sendFeedback(Text.literal("No region download has been started"));
+            return 0;
+        }
+        context.getSource().sendFeedback(Text.literal(describe(progress)));
+        return 1;
+    }
+
+    static String describe(RegionDownloader.Progress progress) {
+        String state = switch (progress.state()) {
+            case RUNNING -> "Region download running";
+            case PAUSED -> "Region download paused";
+            case DONE -> "Region download finished";
+            case CANCELLED -> "Region download cancelled";
+        };
+        return state + ": " + progress.done() + "/" + progress.total() + " tiles ("
+                + Math.round(progress.fraction() * 100) + "%), " + progress.downloaded() + " downloaded, "
+                + progress.missing() + " not on server, " + progress.failed() + " failed";
+    }
+
+    private static void reply(FabricClientCommandSource source, Text message, boolean error) {
+        MinecraftClient.getInstance().execute(() -> {
+            if (error) {
+                source.sendError(message);
+            } else {
+                source.sendFeedback(message);
+            }
+        });
+    }
+}
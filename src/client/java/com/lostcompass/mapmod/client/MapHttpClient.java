@@ -0,0 +1,80 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Networking layer shared by {@link TileManager} and {@link MarkerManager}. One HTTP/2 client
+ * multiplexes every request to the map host over a single connection, callers run on virtual
+ * threads, and a semaphore caps how many requests are outstanding at once.
+ */
+public class MapHttpClient {
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrentRequests;
+    private final CircuitBreaker circuitBreaker;
+
+    public MapHttpClient(ModConfig config) {
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+        this.maxConcurrentRequests = config.getMaxConcurrentRequests();
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.circuitBreaker = new CircuitBreaker("Map server " + config.getMapServerUrl(),
+                config.getCircuitBreakerThreshold(), 5_000, 120_000);
+    }
+
+    public static HttpRequest.Builder get(String url, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .GET();
+    }
+
+    /**
+     * Sends a request, waiting for a free permit first. Blocking here is cheap because callers
+     * run on virtual threads; interrupting the caller aborts both the wait and the exchange.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        permits.acquire();
+        try {
+            return httpClient.send(request, handler);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Virtual-thread executor for work that performs requests through this client.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
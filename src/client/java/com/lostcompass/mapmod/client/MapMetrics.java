@@ -0,0 +1,172 @@
+package com.lostcompass.mapmod.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the map's subsystems, shown by {@link DebugOverlay}.
+ * Recording is lock-free and cheap enough to stay on permanently; it is fed from fetch workers,
+ * the marker poller and the render thread alike.
+ * <p>
+ * Everything is cumulative. Readers take {@link #snapshot() snapshots} and subtract an older one
+ * to get rates and latency distributions over a recent window.
+ */
+public class MapMetrics {
+    public enum Counter {
+        TILE_BYTES,
+        MARKER_BYTES,
+        TEXTURES_REGISTERED,
+        TEXTURES_DESTROYED,
+        TILES_UNCHANGED,
+        TILES_REPLACED
+    }
+
+    public enum Timer {
+        FETCH,
+        DECODE,
+        UPLOAD,
+        MINIMAP_FRAME,
+        MAP_FRAME,
+        PLAYER_POLL,
+        TOWN_POLL
+    }
+
+    // Durations are bucketed in microseconds: exact below 4, then four buckets per power of two
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final AtomicLongArray[] timers = new AtomicLongArray[Timer.values().length];
+
+    public MapMetrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void add(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void record(Timer timer, long nanos) {
+        timers[timer.ordinal()].incrementAndGet(bucket(Math.max(0, nanos / 1000)));
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(Timer timer, long startNanos) {
+        record(timer, System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Smallest duration, in microseconds, that falls into the bucket.
+     */
+    static long bucketFloor(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public Snapshot snapshot() {
+        long[] counterValues = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            counterValues[i] = counters[i].sum();
+        }
+        long[][] timerBuckets = new long[timers.length][BUCKETS];
+        for (int i = 0; i < timers.length; i++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                timerBuckets[i][b] = timers[i].get(b);
+            }
+        }
+        return new Snapshot(System.nanoTime(), counterValues, timerBuckets);
+    }
+
+    /**
+     * Metric values at one point in time.
+     */
+    public static final class Snapshot {
+        private final long nanoTime;
+        private final long[] counters;
+        private final long[][] timers;
+
+        private Snapshot(long nanoTime, long[] counters, long[][] timers) {
+            this.nanoTime = nanoTime;
+            this.counters = counters;
+            this.timers = timers;
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        /**
+         * Seconds between {@code earlier} and this snapshot.
+         */
+        public double secondsSince(Snapshot earlier) {
+            return (nanoTime - earlier.nanoTime) / 1e9;
+        }
+
+        /**
+         * Per-second rate of a counter between {@code earlier} and this snapshot.
+         */
+        public double rate(Counter counter, Snapshot earlier) {
+            double seconds = secondsSince(earlier);
+            return seconds > 0 ? (get(counter) - earlier.get(counter)) / seconds : 0;
+        }
+
+        /**
+         * Number of timings recorded between {@code earlier} and this snapshot.
+         */
+        public long count(Timer timer, Snapshot earlier) {
+            long[] now = timers[timer.ordinal()];
+            long[] then = earlier.timers[timer.ordinal()];
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                count += now[b] - then[b];
+            }
+            return count;
+        }
+
+        /**
+         * Upper bound, in microseconds, of the given percentile of timings recorded between
+         * {@code earlier} and this snapshot (within 25%), or -1 if there were none.
+         */
+        public long percentileMicros(Timer timer, double percentile, Snapshot earlier) {
+            long count = count(timer, earlier);
+            if (count == 0) {
+                return -1;
+            }
+            long[] now = timers[timer.ordinal()];
+            long[] then = earlier.timers[timer.ordinal()];
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += now[b] - then[b];
+                if (seen >= rank) {
+                    return b + 1 < BUCKETS ? bucketFloor(b + 1) : bucketFloor(b);
+                }
+            }
+            return bucketFloor(BUCKETS - 1);
+        }
+    }
+}
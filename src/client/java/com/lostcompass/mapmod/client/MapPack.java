@@ -0,0 +1,102 @@
+package com.lostcompass.mapmod.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single-file bundle of region files, used to hand out a pre-built base map.
+ *
+ * <pre>
+ * header   magic, version, regionCount   (3 x int)
+ * regions  long length, region file image (see {@link TileRegionFile})
+ * </pre>
+ */
+public final class MapPack {
+    public static final String EXTENSION = ".lcmpack";
+
+    private static final int MAGIC = 0x4C434D50; // "LCMP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+
+    public record Result(int regions, int tiles) {}
+
+    private MapPack() {}
+
+    public static Result export(TileDiskCache diskCache, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        int[] counts = {0, 0};
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Region count is patched in once every region has been written
+            writeFully(out, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(0).flip());
+
+            diskCache.forEachRegion(region -> {
+                int tiles = region.writeToPack(out);
+                if (tiles > 0) {
+                    counts[0]++;
+                    counts[1] += tiles;
+                }
+            });
+
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).putInt(counts[0]).flip();
+            while (count.hasRemaining()) out.write(count, 8);
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        return new Result(counts[0], counts[1]);
+    }
+
+    public static Result importInto(TileDiskCache diskCache, Path source) throws IOException {
+        int regions = 0;
+        int[] tiles = {0};
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a LostCompass map pack");
+            }
+
+            int regionCount = header.getInt(8);
+            long position = HEADER_BYTES;
+            for (int i = 0; i < regionCount; i++) {
+                long length = in.map(FileChannel.MapMode.READ_ONLY, position, Long.BYTES).getLong(0);
+                position += Long.BYTES;
+                if (length <= 0 || length > TileRegionFile.MAX_BYTES || position + length > in.size()) {
+                    throw new IOException("Truncated map pack");
+                }
+
+                ByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+
+                int[] regionHeader = TileRegionFile.readHeader(region);
+                if (regionHeader == null) {
+                    throw new IOException("Corrupt region in map pack");
+                }
+                int zoom = regionHeader[0];
+                int baseX = regionHeader[1] << TileRegionFile.REGION_SHIFT;
+                int baseY = regionHeader[2] << TileRegionFile.REGION_SHIFT;
+
+                TileRegionFile.forEachEntry(region, (localX, localY, entry) -> {
+                    TileManager.TileKey key = new TileManager.TileKey(zoom, baseX + localX, baseY + localY);
+                    if (diskCache.importEntry(key, entry)) {
+                        tiles[0]++;
+                    }
+                });
+                regions++;
+            }
+        }
+
+        return new Result(regions, tiles[0]);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) out.write(buffer);
+    }
+}
@@ -8,21 +8,37 @@ import net.minecraft.client.render.RenderTickCounter;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.util.Identifier;
 
+import java.util.List;
+
 public class MapRenderer {
     private final TileManager tileManager;
     private final MarkerManager markerManager;
     private final ModConfig config;
+    private final MinimapLayer minimapLayer;
     private boolean minimapEnabled = true;
     private int currentZoom;
 
+    private TextMetrics textMetrics;
+    private String coordsText;
+    private String townText;
+    private int townTextWidth;
+    private int statusBlockX;
+    private int statusBlockZ;
+    private int statusTownVersion;
+
     public MapRenderer(TileManager tileManager, MarkerManager markerManager, ModConfig config) {
         this.tileManager = tileManager;
         this.markerManager = markerManager;
         this.config = config;
         this.currentZoom = config.getDefaultZoom();
+        this.minimapLayer = new MinimapLayer(tileManager, markerManager, config);
     }
 
     public void render(DrawContext context, RenderTickCounter tickCounter) {
+        // Drain finished tiles even while the minimap is hidden so fetch workers never stall. The
+        // HUD renders underneath open screens too, so this is the one drain per frame
+        tileManager.processUploads();
+
         if (!minimapEnabled) {
             return;
         }
@@ -48,114 +64,23 @@ public class MapRenderer {
         int mapX = screenWidth - mapSize - margin;
         int mapY = margin;
 
-        double playerX = player.getX();
-        double playerZ = player.getZ();
-
-        context.fill(mapX - 2, mapY - 2, mapX + mapSize + 2, mapY + mapSize + 2, 0xFF000000);
-        context.fill(mapX, mapY, mapX + mapSize, mapY + mapSize, 0xFF333333);
-
-        tileManager.preloadTilesAround(playerX, playerZ, currentZoom, 2);
-
-        int tileSize = config.getTileSize();
-        int blocksPerTile = config.getBlocksPerTile(currentZoom);
-        double pixelsPerBlock = (double) tileSize / blocksPerTile;
-
-        TileManager.TileKey centerTile = tileManager.worldToTile(playerX, playerZ, currentZoom);
-
-        double tileOffsetX = (playerX - centerTile.x() * blocksPerTile) * pixelsPerBlock;
-        double tileOffsetY = (playerZ - centerTile.y() * blocksPerTile) * pixelsPerBlock;
-
-        int tilesNeeded = (int) Math.ceil((double) mapSize / tileSize) + 2;
-        int halfTiles = tilesNeeded / 2;
-
-        for (int dx = -halfTiles; dx <= halfTiles; dx++) {
-            for (int dy = -halfTiles; dy <= halfTiles; dy++) {
-                TileManager.TileKey tileKey = new TileManager.TileKey(
-                        currentZoom,
-                        centerTile.x() + dx,
-                        centerTile.y() + dy
-                );
-
-                TileManager.CachedTile tile = tileManager.getTile(tileKey);
-
-                int tileScreenX = (int) (mapX + mapSize / 2.0 - tileOffsetX + dx * tileSize);
-                int tileScreenY = (int) (mapY + mapSize / 2.0 - tileOffsetY + dy * tileSize);
-
-                if (tileScreenX + tileSize < mapX || tileScreenX > mapX + mapSize ||
-                        tileScreenY + tileSize < mapY || tileScreenY > mapY + mapSize) {
-                    continue;
-                }
-
-                if (tile != null && tile.isValid()) {
-                    int drawX = tileScreenX;
-                    int drawY = tileScreenY;
-                    int drawWidth = tileSize;
-                    int drawHeight = tileSize;
-                    int u = 0;
-                    int v = 0;
-
-                    if (drawX < mapX) {
-                        int clip = mapX - drawX;
-                        u = clip;
-                        drawWidth -= clip;
-                        drawX = mapX;
-                    }
-                    if (drawY < mapY) {
-                        int clip = mapY - drawY;
-                        v = clip;
-                        drawHeight -= clip;
-                        drawY = mapY;
-                    }
-                    if (drawX + drawWidth > mapX + mapSize) {
-                        int clip = (drawX + drawWidth) - (mapX + mapSize);
-                        drawWidth -= clip;
-                    }
-                    if (drawY + drawHeight > mapY + mapSize) {
-                        int clip = (drawY + drawHeight) - (mapY + mapSize);
-                        drawHeight -= clip;
-                    }
-
-                    if (drawWidth > 0 && drawHeight > 0) {
-                        context.drawTexture(RenderPipelines.GUI_TEXTURED, tile.getTextureId(),
-                                drawX, drawY, u, v,
-                                drawWidth, drawHeight,
-                                tileSize, tileSize);
-                    }
-                }
-            }
-        }
-
-        // Draw town markers (use same scale as tiles)
-        for (MarkerManager.TownMarker town : markerManager.getTowns()) {
-            int townScreenX = (int) (mapX + mapSize / 2.0 + (town.x() - playerX) * pixelsPerBlock);
-            int townScreenY = (int) (mapY + mapSize / 2.0 + (town.z() - playerZ) * pixelsPerBlock);
-
-            if (townScreenX >= mapX && townScreenX <= mapX + mapSize &&
-                    townScreenY >= mapY && townScreenY <= mapY + mapSize) {
-                int color = town.type().contains("capital") ? 0xFFFFD700 : 0xFF00FF00;
-                int size = town.type().contains("capital") ? 3 : 2;
-                context.fill(townScreenX - size, townScreenY - size,
-                        townScreenX + size, townScreenY + size, color);
-            }
-        }
+        long start = System.nanoTime();
+        markerManager.reportDemand(MarkerManager.Demand.MINIMAP);
 
-        // Draw other players (use same scale as tiles) - filter out local player
-        String localPlayerName = player.getName().getString();
-        String localPlayerUuid = player.getUuidAsString();
+        // Tiles and towns only change when the view does; otherwise this is one blit
+        minimapLayer.update(player, currentZoom, mapSize);
 
-        for (MarkerManager.PlayerMarker otherPlayer : markerManager.getPlayers()) {
-            // Skip the local player
-            if (otherPlayer.name().equals(localPlayerName) ||
-                (!otherPlayer.uuid().isEmpty() && otherPlayer.uuid().equals(localPlayerUuid))) {
-                continue;
-            }
-
-            int pScreenX = (int) (mapX + mapSize / 2.0 + (otherPlayer.x() - playerX) * pixelsPerBlock);
-            int pScreenY = (int) (mapY + mapSize / 2.0 + (otherPlayer.z() - playerZ) * pixelsPerBlock);
-
-            if (pScreenX >= mapX && pScreenX <= mapX + mapSize &&
-                    pScreenY >= mapY && pScreenY <= mapY + mapSize) {
-                drawPlayerArrow(context, pScreenX, pScreenY, otherPlayer.yaw(), 3, 0xFF00BFFF);
+        context.fill(mapX - 2, mapY - 2, mapX + mapSize + 2, mapY + mapSize + 2, 0xFF000000);
+        minimapLayer.draw(context, mapX, mapY);
+
+        double alpha = minimapLayer.getNearbySnapshot().alpha(System.currentTimeMillis());
+        List<PlayerSnapshot.Entry> nearbyPlayers = minimapLayer.getNearbyPlayers();
+        for (int i = 0; i < nearbyPlayers.size(); i++) {
+            PlayerSnapshot.Entry other = nearbyPlayers.get(i);
+            int pX = minimapLayer.layerX(other.x(alpha));
+            int pY = minimapLayer.layerY(other.z(alpha));
+            if (pX >= 0 && pX <= mapSize && pY >= 0 && pY <= mapSize) {
+                drawPlayerArrow(context, mapX + pX, mapY + pY, other.yaw(alpha), 3, 0xFF00BFFF);
             }
         }
 
@@ -170,34 +95,57 @@ public class MapRenderer {
         context.fill(mapX - 2, mapY - 1, mapX - 1, mapY + mapSize + 1, 0xFF555555);
         context.fill(mapX + mapSize + 1, mapY - 1, mapX + mapSize + 2, mapY + mapSize + 1, 0xFF555555);
 
-        String coords = String.format("X: %d Z: %d", (int) playerX, (int) playerZ);
-        context.drawText(MinecraftClient.getInstance().textRenderer, coords,
+        if (textMetrics == null) {
+            textMetrics = TextMetrics.of(client.textRenderer);
+        }
+        updateStatusText(textMetrics, markerManager.getTownIndex(), player.getX(), player.getZ());
+        context.drawText(client.textRenderer, coordsText,
                 mapX + 2, mapY + mapSize + 4, 0xFFFFFFFF, true);
 
-        // Find and display current town (if within 50 blocks of town center)
-        MarkerManager.TownMarker nearestTown = null;
-        double nearestDistance = 50; // Max distance to be considered "in" a town
-        for (MarkerManager.TownMarker town : markerManager.getTowns()) {
-            double dx = town.x() - playerX;
-            double dz = town.z() - playerZ;
-            double distance = Math.sqrt(dx * dx + dz * dz);
-            if (distance < nearestDistance) {
-                nearestDistance = distance;
-                nearestTown = town;
-            }
+        if (townText != null) {
+            context.drawText(client.textRenderer, townText,
+                    mapX + (mapSize - townTextWidth) / 2, mapY + mapSize + 14, 0xFF00FF00, true);
         }
+        tileManager.getMetrics().recordSince(MapMetrics.Timer.MINIMAP_FRAME, start);
+    }
 
+    /**
+     * Rebuilds the coordinate line and current-town label only when the player's block position
+     * or the town data changes.
+     */
+    void updateStatusText(TextMetrics text, MarkerIndex<MarkerManager.TownMarker> towns, double playerX, double playerZ) {
+        int blockX = (int) playerX;
+        int blockZ = (int) playerZ;
+        int townVersion = towns.getVersion();
+        if (coordsText != null && blockX == statusBlockX && blockZ == statusBlockZ
+                && townVersion == statusTownVersion) {
+            return;
+        }
+        statusBlockX = blockX;
+        statusBlockZ = blockZ;
+        statusTownVersion = townVersion;
+        coordsText = "X: " + blockX + " Z: " + blockZ;
+
+        // Find and display current town (if within 50 blocks of town center)
+        MarkerManager.TownMarker nearestTown = towns.nearest(playerX, playerZ, 50);
+
+        townText = null;
         if (nearestTown != null) {
-            String townText = nearestTown.name();
+            townText = nearestTown.name();
             if (nearestTown.type().contains("capital")) {
                 townText = "\u2605 " + townText; // Star for capital
             }
-            int textWidth = client.textRenderer.getWidth(townText);
-            context.drawText(client.textRenderer, townText,
-                    mapX + (mapSize - textWidth) / 2, mapY + mapSize + 14, 0xFF00FF00, true);
+            townTextWidth = text.width(townText);
         }
     }
 
+    /**
+     * Releases the minimap texture. Render thread only.
+     */
+    public void close() {
+        minimapLayer.close();
+    }
+
     public void toggleMinimap() {
         minimapEnabled = !minimapEnabled;
     }
@@ -11,15 +11,36 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import org.lwjgl.glfw.GLFW;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MapScreen extends Screen {
+    // Tiles kept loaded around the screen, on every side
+    static final int TRACKER_MARGIN = 1;
+
     private final TileManager tileManager;
     private final MarkerManager markerManager;
     private final ModConfig config;
+    private final TileBatch tileBatch = new TileBatch();
+    private final LabelLayout labelLayout = new LabelLayout();
+    private final HudText hudText;
+    private final List<PlayerSnapshot.Entry> visiblePlayers = new ArrayList<>();
+    private final RegionDownloader regionDownloader;
+    private final ViewPrefetcher viewPrefetcher;
+    private final TileViewTracker tileTracker;
 
     private double viewCenterX;
     private double viewCenterZ;
     private int currentZoom;
 
+    private TextMetrics textMetrics;
+
+    // Region download progress line, refreshed a few times a second while a download is active
+    private static final long DOWNLOAD_TEXT_REFRESH_MILLIS = 250;
+    private String downloadText;
+    private int downloadTextWidth;
+    private long downloadTextAt;
+
     private boolean isDragging = false;
     private double dragStartX;
     private double dragStartY;
@@ -30,8 +51,12 @@ public class MapScreen extends Screen {
         super(Text.literal("LostCompass Map"));
         this.tileManager = tileManager;
         this.markerManager = LostCompassMapClient.getMarkerManager();
+        this.regionDownloader = LostCompassMapClient.getRegionDownloader();
         this.config = config;
         this.currentZoom = config.getDefaultZoom();
+        this.viewPrefetcher = new ViewPrefetcher(tileManager, config);
+        this.tileTracker = tileManager.createViewTracker(TRACKER_MARGIN);
+        this.hudText = new HudText(config);
 
         MinecraftClient client = MinecraftClient.getInstance();
         if (client.player != null) {
@@ -40,15 +65,29 @@ public class MapScreen extends Screen {
         }
     }
 
+    @Override
+    protected void init() {
+        textMetrics = TextMetrics.of(textRenderer);
+    }
+
     @Override
     public void render(DrawContext context, int mouseX, int mouseY, float delta) {
+        // The HUD drains uploads underneath this screen; with the HUD hidden nothing else does,
+        // and draining both would spend the per-frame upload budget twice
+        if (MinecraftClient.getInstance().options.hudHidden) {
+            tileManager.processUploads();
+        }
+        long start = System.nanoTime();
+        markerManager.reportDemand(MarkerManager.Demand.MAP);
         context.fill(0, 0, width, height, 0xFF1a1a1a);
 
         renderMap(context);
         renderMarkers(context);
         renderUI(context, mouseX, mouseY);
+        tileManager.getMetrics().recordSince(MapMetrics.Timer.MAP_FRAME, start);
 
         super.render(context, mouseX, mouseY, delta);
+        LostCompassMapClient.getDebugOverlay().render(context, textRenderer, height);
     }
 
     private void renderMap(DrawContext context) {
@@ -56,62 +95,59 @@ public class MapScreen extends Screen {
         int blocksPerTile = config.getBlocksPerTile(currentZoom);
         double pixelsPerBlock = (double) tileSize / blocksPerTile;
         int serverMaxZoom = config.getServerMaxZoom();
-        int serverMinZoom = config.getServerMinZoom();
 
-        // Clamp to server's actual tile range
-        int serverZoom = Math.max(serverMinZoom, Math.min(currentZoom, serverMaxZoom));
-        int serverBlocksPerTile = config.getBlocksPerTile(serverZoom);
+        // Below the server's range the tile manager builds downsampled tiles itself, so only
+        // extra zoom in has to stretch server tiles
+        int tileZoom = Math.min(currentZoom, serverMaxZoom);
+        int tileBlocks = config.getBlocksPerTile(tileZoom);
         int displayTileSize = tileSize;
 
         if (currentZoom > serverMaxZoom) {
             // Extra zoom IN: scale up tiles (2x at zoom 4, 4x at zoom 5)
-            int scaleFactor = (int) Math.pow(2, currentZoom - serverMaxZoom);
-            displayTileSize = tileSize * scaleFactor;
-        } else if (currentZoom < serverMinZoom) {
-            // Extra zoom OUT: scale down tiles (1/2 at zoom -1, 1/4 at zoom -2)
-            int scaleFactor = (int) Math.pow(2, serverMinZoom - currentZoom);
-            displayTileSize = tileSize / scaleFactor;
+            displayTileSize = tileSize << (currentZoom - serverMaxZoom);
         }
 
-        int preloadRadius = currentZoom < serverMinZoom ? 5 : 3;
-        tileManager.preloadTilesAround(viewCenterX, viewCenterZ, serverZoom, preloadRadius);
-
-        TileManager.TileKey centerTile = tileManager.worldToTile(viewCenterX, viewCenterZ, serverZoom);
-
-        double tileOffsetX = (viewCenterX - centerTile.x() * serverBlocksPerTile) * pixelsPerBlock;
-        double tileOffsetY = (viewCenterZ - centerTile.y() * serverBlocksPerTile) * pixelsPerBlock;
-
-        int tilesNeededX = (int) Math.ceil((double) width / displayTileSize) + 2;
-        int tilesNeededY = (int) Math.ceil((double) height / displayTileSize) + 2;
-        int halfTilesX = tilesNeededX / 2;
-        int halfTilesY = tilesNeededY / 2;
-
-        for (int dx = -halfTilesX; dx <= halfTilesX; dx++) {
-            for (int dy = -halfTilesY; dy <= halfTilesY; dy++) {
-                TileManager.TileKey tileKey = new TileManager.TileKey(
-                        serverZoom,
-                        centerTile.x() + dx,
-                        centerTile.y() + dy
-                );
-
-                TileManager.CachedTile tile = tileManager.getTile(tileKey);
-
-                int tileScreenX = (int) (width / 2.0 - tileOffsetX + dx * displayTileSize);
-                int tileScreenY = (int) (height / 2.0 - tileOffsetY + dy * displayTileSize);
-
-                if (tileScreenX + displayTileSize < 0 || tileScreenX > width ||
-                        tileScreenY + displayTileSize < 0 || tileScreenY > height) {
-                    continue;
-                }
-
-                if (tile != null && tile.isValid()) {
-                    context.drawTexture(RenderPipelines.GUI_TEXTURED, tile.getTextureId(),
-                            tileScreenX, tileScreenY,
-                            0.0f, 0.0f,
-                            displayTileSize, displayTileSize,
-                            tileSize, tileSize,
-                            tileSize, tileSize);
+        int centerTileX = TileMath.tileCoord(viewCenterX, tileBlocks);
+        int centerTileY = TileMath.tileCoord(viewCenterZ, tileBlocks);
+
+        double tileOffsetX = (viewCenterX - centerTileX * tileBlocks) * pixelsPerBlock;
+        double tileOffsetY = (viewCenterZ - centerTileY * tileBlocks) * pixelsPerBlock;
+
+        // The tracker fetches tiles as they come on screen or into its margin, so a still view
+        // requests nothing
+        double halfWidthBlocks = width / 2.0 / pixelsPerBlock;
+        double halfHeightBlocks = height / 2.0 / pixelsPerBlock;
+        tileTracker.update(tileZoom,
+                TileMath.tileCoord(viewCenterX - halfWidthBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterZ - halfHeightBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterX + halfWidthBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterZ + halfHeightBlocks, tileBlocks));
+        int minTileX = tileTracker.getMinX();
+        int minTileY = tileTracker.getMinY();
+        int maxTileX = tileTracker.getMaxX();
+        int maxTileY = tileTracker.getMaxY();
+
+        // Pans and zooms in progress fetch ahead speculatively; the focus keeps what that reaches
+        int predictedReach = viewPrefetcher.update(viewCenterX, viewCenterZ, currentZoom, width, height);
+        int trackedReach = Math.max(Math.max(centerTileX - minTileX, maxTileX - centerTileX),
+                Math.max(centerTileY - minTileY, maxTileY - centerTileY)) + TRACKER_MARGIN;
+        tileManager.setViewFocus(viewCenterX, viewCenterZ, tileZoom, Math.max(trackedReach, predictedReach) + 1);
+
+        // Placeholders are filled immediately; tiles are queued and drawn grouped by atlas page
+        tileBatch.begin(0, 0, width, height);
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                int tileScreenX = (int) (width / 2.0 - tileOffsetX + (tileX - centerTileX) * displayTileSize);
+                int tileScreenY = (int) (height / 2.0 - tileOffsetY + (tileY - centerTileY) * displayTileSize);
+
+                TileManager.CachedTile tile = tileManager.getTile(tileZoom, tileX, tileY);
+                if (tile != null) {
+                    tileBatch.add(tile, 0, 0, tileSize, tileScreenX, tileScreenY, displayTileSize);
                 } else {
+                    if (tileManager.drawFallback(tileBatch, tileZoom, tileX, tileY,
+                            tileScreenX, tileScreenY, displayTileSize)) {
+                        continue;
+                    }
                     context.fill(tileScreenX, tileScreenY,
                             tileScreenX + displayTileSize, tileScreenY + displayTileSize, 0xFF2a2a2a);
                     context.fill(tileScreenX, tileScreenY, tileScreenX + displayTileSize, tileScreenY + 1, 0xFF3a3a3a);
@@ -121,55 +157,63 @@ public class MapScreen extends Screen {
                 }
             }
         }
+        tileBatch.flush(context, config.getAtlasPageSize());
     }
 
     private void renderMarkers(DrawContext context) {
         int blocksPerTile = config.getBlocksPerTile(currentZoom);
         double pixelsPerBlock = (double) config.getTileSize() / blocksPerTile;
 
-        // Draw town markers (hide when zoomed out to reduce clutter)
-        if (currentZoom >= 0) for (MarkerManager.TownMarker town : markerManager.getTowns()) {
-            int townScreenX = (int) (width / 2.0 + (town.x() - viewCenterX) * pixelsPerBlock);
-            int townScreenY = (int) (height / 2.0 + (town.z() - viewCenterZ) * pixelsPerBlock);
-
-            if (townScreenX >= 0 && townScreenX <= width && townScreenY >= 0 && townScreenY <= height) {
-                int color = town.type().contains("capital") ? 0xFFFFD700 : 0xFF00FF00;
-                int size = town.type().contains("capital") ? 5 : 4;
-
-                // Draw marker
-                context.fill(townScreenX - size, townScreenY - size,
-                        townScreenX + size, townScreenY + size, color);
-                context.fill(townScreenX - size + 1, townScreenY - size + 1,
-                        townScreenX + size - 1, townScreenY + size - 1, 0xFF000000 | (color & 0x00FFFFFF));
-
-                // Draw town name
-                String name = town.name();
-                if (name.length() > 12) name = name.substring(0, 12) + "..";
-                context.drawText(textRenderer, name, townScreenX - textRenderer.getWidth(name) / 2,
+        // Town placement and decluttering is only redone when the view changes
+        labelLayout.update(textMetrics, markerManager.getTownIndex(), viewCenterX, viewCenterZ,
+                pixelsPerBlock, currentZoom, width, height);
+        for (int i = 0; i < labelLayout.getTownCount(); i++) {
+            MarkerManager.TownMarker town = labelLayout.getTown(i);
+            int townScreenX = labelLayout.getTownX(i);
+            int townScreenY = labelLayout.getTownY(i);
+            int color = LabelLayout.isCapital(town) ? 0xFFFFD700 : 0xFF00FF00;
+            int size = LabelLayout.markerSize(town);
+
+            // Draw marker
+            context.fill(townScreenX - size, townScreenY - size,
+                    townScreenX + size, townScreenY + size, color);
+            context.fill(townScreenX - size + 1, townScreenY - size + 1,
+                    townScreenX + size - 1, townScreenY + size - 1, 0xFF000000 | (color & 0x00FFFFFF));
+
+            // Draw town name, unless it lost out to a more important overlapping one
+            LabelLayout.Label label = labelLayout.getTownLabel(i);
+            if (label != null) {
+                context.drawText(textRenderer, label.text(), townScreenX - label.width() / 2,
                         townScreenY + size + 2, 0xFFFFFFFF, true);
             }
         }
 
-        // Draw other players (blue) - filter out local player
+        double halfWidthBlocks = width / 2.0 / pixelsPerBlock;
+        double halfHeightBlocks = height / 2.0 / pixelsPerBlock;
+        double minX = viewCenterX - halfWidthBlocks;
+        double minZ = viewCenterZ - halfHeightBlocks;
+        double maxX = viewCenterX + halfWidthBlocks;
+        double maxZ = viewCenterZ + halfHeightBlocks;
+
+        // Draw other players (blue); the snapshot already leaves out the local player
         MinecraftClient client = MinecraftClient.getInstance();
-        String localPlayerName = client.player != null ? client.player.getName().getString() : "";
-        String localPlayerUuid = client.player != null ? client.player.getUuidAsString() : "";
-
-        for (MarkerManager.PlayerMarker player : markerManager.getPlayers()) {
-            // Skip the local player (check both name and UUID)
-            if (player.name().equals(localPlayerName) ||
-                (!player.uuid().isEmpty() && player.uuid().equals(localPlayerUuid))) {
-                continue;
-            }
+        PlayerSnapshot snapshot = markerManager.getPlayerSnapshot();
+        double alpha = snapshot.alpha(System.currentTimeMillis());
 
-            int pScreenX = (int) (width / 2.0 + (player.x() - viewCenterX) * pixelsPerBlock);
-            int pScreenY = (int) (height / 2.0 + (player.z() - viewCenterZ) * pixelsPerBlock);
+        visiblePlayers.clear();
+        snapshot.queryOthers(minX, minZ, maxX, maxZ, visiblePlayers);
+        for (int i = 0; i < visiblePlayers.size(); i++) {
+            PlayerSnapshot.Entry other = visiblePlayers.get(i);
+            MarkerManager.PlayerMarker player = other.marker();
+            int pScreenX = (int) (width / 2.0 + (other.x(alpha) - viewCenterX) * pixelsPerBlock);
+            int pScreenY = (int) (height / 2.0 + (other.z(alpha) - viewCenterZ) * pixelsPerBlock);
 
             if (pScreenX >= 0 && pScreenX <= width && pScreenY >= 0 && pScreenY <= height) {
-                drawPlayerArrow(context, pScreenX, pScreenY, player.yaw(), 5, 0xFF00BFFF);
+                drawPlayerArrow(context, pScreenX, pScreenY, other.yaw(alpha), 5, 0xFF00BFFF);
 
                 // Draw player name
-                context.drawText(textRenderer, player.name(), pScreenX - textRenderer.getWidth(player.name()) / 2,
+                LabelLayout.Label label = labelLayout.playerLabel(textMetrics, player.name());
+                context.drawText(textRenderer, label.text(), pScreenX - label.width() / 2,
                         pScreenY + 10, 0xFF00BFFF, true);
             }
         }
@@ -188,39 +232,101 @@ public class MapScreen extends Screen {
 
     private void renderUI(DrawContext context, int mouseX, int mouseY) {
         int padding = 10;
-        int boxWidth = 220;
+        int boxWidth = 250;
         int boxHeight = 75;
 
         context.fill(padding, padding, padding + boxWidth, padding + boxHeight, 0xAA000000);
 
         MinecraftClient client = MinecraftClient.getInstance();
+        boolean hasPlayer = client.player != null;
+        hudText.update(textMetrics, viewCenterX, viewCenterZ, currentZoom, markerManager.getPlayers().size(),
+                markerManager.getTownIndex().size(), hasPlayer,
+                hasPlayer ? client.player.getX() : 0, hasPlayer ? client.player.getZ() : 0);
 
         String title = "LostCompass Map";
         context.drawText(textRenderer, title, padding + 5, padding + 5, 0xFFFFFFFF, true);
 
-        String viewCoords = String.format("View: X: %d Z: %d", (int) viewCenterX, (int) viewCenterZ);
-        context.drawText(textRenderer, viewCoords, padding + 5, padding + 18, 0xFFCCCCCC, false);
-
-        String zoomText = String.format("Zoom: %d (%d to %d)", currentZoom, config.getMinZoom(), config.getMaxZoom());
-        context.drawText(textRenderer, zoomText, padding + 5, padding + 30, 0xFFCCCCCC, false);
+        context.drawText(textRenderer, hudText.viewCoords, padding + 5, padding + 18, 0xFFCCCCCC, false);
+        context.drawText(textRenderer, hudText.zoom, padding + 5, padding + 30, 0xFFCCCCCC, false);
+        context.drawText(textRenderer, hudText.stats, padding + 5, padding + 42, 0xFF88FF88, false);
 
-        String stats = String.format("Players: %d | Towns: %d",
-                markerManager.getPlayers().size(), markerManager.getTowns().size());
-        context.drawText(textRenderer, stats, padding + 5, padding + 42, 0xFF88FF88, false);
-
-        String controls = "[Scroll] Zoom  [Drag] Pan  [R] Reset";
+        String controls = "[Scroll] Zoom  [Drag] Pan  [R] Reset  [G] Save";
         context.drawText(textRenderer, controls, padding + 5, padding + 58, 0xFF888888, false);
 
-        if (client.player != null) {
-            double playerX = client.player.getX();
-            double playerZ = client.player.getZ();
-            String playerCoords = String.format("You: X: %d Z: %d", (int) playerX, (int) playerZ);
-            context.drawText(textRenderer, playerCoords,
-                    width - textRenderer.getWidth(playerCoords) - padding,
+        updateDownloadText();
+        if (downloadText != null) {
+            int textWidth = downloadTextWidth;
+            int x = (width - textWidth) / 2;
+            int y = height - padding - textRenderer.fontHeight;
+            context.fill(x - 4, y - 4, x + textWidth + 4, y + textRenderer.fontHeight + 3, 0xAA000000);
+            context.drawText(textRenderer, downloadText, x, y, 0xFFFFFF88, false);
+        }
+
+        if (hasPlayer) {
+            context.drawText(textRenderer, hudText.playerCoords,
+                    width - hudText.playerCoordsWidth - padding,
                     padding + 5, 0xFFFFFFFF, true);
         }
     }
 
+    private void updateDownloadText() {
+        long now = System.currentTimeMillis();
+        if (now - downloadTextAt < DOWNLOAD_TEXT_REFRESH_MILLIS) {
+            return;
+        }
+        downloadTextAt = now;
+        RegionDownloader.Progress progress = regionDownloader.getProgress();
+        if (progress == null || (progress.state() != RegionDownloader.State.RUNNING
+                && progress.state() != RegionDownloader.State.PAUSED)) {
+            downloadText = null;
+            return;
+        }
+        boolean paused = progress.state() == RegionDownloader.State.PAUSED;
+        String text = (paused ? "Map download paused: " : "Saving map: ") + progress.done() + "/" + progress.total()
+                + " tiles (" + Math.round(progress.fraction() * 100) + "%)  [G] " + (paused ? "Resume" : "Pause");
+        // Measured only when the line changes, not every frame
+        if (!text.equals(downloadText)) {
+            downloadText = text;
+            downloadTextWidth = textMetrics.width(text);
+        }
+    }
+
+    /**
+     * [G]: saves the area in view to disk at every server zoom from the current one down to the
+     * most detailed, or pauses/resumes the download already in progress.
+     */
+    private void toggleRegionDownload() {
+        downloadTextAt = 0;
+        if (regionDownloader.isActive()) {
+            if (!regionDownloader.pause()) {
+                regionDownloader.resume();
+            }
+            return;
+        }
+
+        double pixelsPerBlock = (double) config.getTileSize() / config.getBlocksPerTile(currentZoom);
+        int halfWidthBlocks = (int) Math.ceil(width / 2.0 / pixelsPerBlock);
+        int halfHeightBlocks = (int) Math.ceil(height / 2.0 / pixelsPerBlock);
+        int minZoom = Math.clamp(currentZoom, config.getServerMinZoom(), config.getServerMaxZoom());
+        RegionDownloader.Region region = new RegionDownloader.Region(
+                (int) viewCenterX - halfWidthBlocks, (int) viewCenterZ - halfHeightBlocks,
+                (int) viewCenterX + halfWidthBlocks, (int) viewCenterZ + halfHeightBlocks,
+                minZoom, config.getServerMaxZoom());
+
+        MinecraftClient client = MinecraftClient.getInstance();
+        try {
+            regionDownloader.start(region, finished -> client.execute(() -> {
+                if (client.player != null) {
+                    client.player.sendMessage(Text.literal(MapCommands.describe(finished)), false);
+                }
+            }));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            if (client.player != null) {
+                client.player.sendMessage(Text.literal(e.getMessage()), false);
+            }
+        }
+    }
+
     @Override
     public boolean mouseClicked(Click click, boolean bl) {
         if (click.button() == 0) {
@@ -238,6 +344,7 @@ public class MapScreen extends Screen {
     public boolean mouseReleased(Click click) {
         if (click.button() == 0) {
             isDragging = false;
+            viewPrefetcher.onPanEnd();
             return true;
         }
         return super.mouseReleased(click);
@@ -252,8 +359,11 @@ public class MapScreen extends Screen {
             double dragDeltaX = click.x() - dragStartX;
             double dragDeltaY = click.y() - dragStartY;
 
-            viewCenterX = dragStartViewX - dragDeltaX / pixelsPerBlock;
-            viewCenterZ = dragStartViewZ - dragDeltaY / pixelsPerBlock;
+            double newCenterX = dragStartViewX - dragDeltaX / pixelsPerBlock;
+            double newCenterZ = dragStartViewZ - dragDeltaY / pixelsPerBlock;
+            viewPrefetcher.onPan(newCenterX - viewCenterX, newCenterZ - viewCenterZ);
+            viewCenterX = newCenterX;
+            viewCenterZ = newCenterZ;
             return true;
         }
         return super.mouseDragged(click, deltaX, deltaY);
@@ -262,9 +372,9 @@ public class MapScreen extends Screen {
     @Override
     public boolean mouseScrolled(double mouseX, double mouseY, double horizontalAmount, double verticalAmount) {
         if (verticalAmount > 0) {
-            zoomIn();
+            zoom(1, mouseX, mouseY);
         } else if (verticalAmount < 0) {
-            zoomOut();
+            zoom(-1, mouseX, mouseY);
         }
         return true;
     }
@@ -273,52 +383,77 @@ public class MapScreen extends Screen {
     public boolean keyPressed(KeyInput keyInput) {
         int keyCode = keyInput.key();
 
+        if (KeyBindings.isToggleDebugKey(keyInput)) {
+            KeyBindings.toggleDebugOverlay();
+            return true;
+        }
+
         if (keyCode == GLFW.GLFW_KEY_R) {
             centerOnPlayer();
             return true;
         }
 
+        if (keyCode == GLFW.GLFW_KEY_G) {
+            toggleRegionDownload();
+            return true;
+        }
+
         if (keyCode == GLFW.GLFW_KEY_EQUAL || keyCode == GLFW.GLFW_KEY_KP_ADD) {
-            zoomIn();
+            zoom(1, width / 2.0, height / 2.0);
             return true;
         }
 
         if (keyCode == GLFW.GLFW_KEY_MINUS || keyCode == GLFW.GLFW_KEY_KP_SUBTRACT) {
-            zoomOut();
+            zoom(-1, width / 2.0, height / 2.0);
             return true;
         }
 
         int panSpeed = config.getBlocksPerTile(currentZoom) / 4;
         if (keyCode == GLFW.GLFW_KEY_UP || keyCode == GLFW.GLFW_KEY_W) {
-            viewCenterZ -= panSpeed;
+            pan(0, -panSpeed);
             return true;
         }
         if (keyCode == GLFW.GLFW_KEY_DOWN || keyCode == GLFW.GLFW_KEY_S) {
-            viewCenterZ += panSpeed;
+            pan(0, panSpeed);
             return true;
         }
         if (keyCode == GLFW.GLFW_KEY_LEFT || keyCode == GLFW.GLFW_KEY_A) {
-            viewCenterX -= panSpeed;
+            pan(-panSpeed, 0);
             return true;
         }
         if (keyCode == GLFW.GLFW_KEY_RIGHT || keyCode == GLFW.GLFW_KEY_D) {
-            viewCenterX += panSpeed;
+            pan(panSpeed, 0);
             return true;
         }
 
         return super.keyPressed(keyInput);
     }
 
-    private void zoomIn() {
-        if (currentZoom < config.getMaxZoom()) {
-            currentZoom++;
-        }
+    private void pan(double deltaX, double deltaZ) {
+        viewPrefetcher.onPan(deltaX, deltaZ);
+        viewCenterX += deltaX;
+        viewCenterZ += deltaZ;
     }
 
-    private void zoomOut() {
-        if (currentZoom > config.getMinZoom()) {
-            currentZoom--;
+    /**
+     * Zooms one level in {@code direction}, keeping the world position under the screen point
+     * ({@code anchorX}, {@code anchorY}) where it is: the cursor for the scroll wheel, the
+     * screen center for the keys.
+     */
+    private void zoom(int direction, double anchorX, double anchorY) {
+        int zoom = currentZoom + direction;
+        if (zoom < config.getMinZoom() || zoom > config.getMaxZoom()) {
+            return;
         }
+        double pixelsPerBlock = (double) config.getTileSize() / config.getBlocksPerTile(currentZoom);
+        double anchorWorldX = viewCenterX + (anchorX - width / 2.0) / pixelsPerBlock;
+        double anchorWorldZ = viewCenterZ + (anchorY - height / 2.0) / pixelsPerBlock;
+
+        currentZoom = zoom;
+        double zoomedPixelsPerBlock = (double) config.getTileSize() / config.getBlocksPerTile(currentZoom);
+        viewCenterX = anchorWorldX - (anchorX - width / 2.0) / zoomedPixelsPerBlock;
+        viewCenterZ = anchorWorldZ - (anchorY - height / 2.0) / zoomedPixelsPerBlock;
+        viewPrefetcher.onZoom(direction, anchorWorldX, anchorWorldZ);
     }
 
     private void centerOnPlayer() {
@@ -346,8 +481,73 @@ public class MapScreen extends Screen {
         matrices.popMatrix();
     }
 
+    @Override
+    public void removed() {
+        viewPrefetcher.clear();
+        tileTracker.clear();
+        super.removed();
+    }
+
     @Override
     public boolean shouldPause() {
         return false;
     }
+
+    /**
+     * The HUD lines and the values they were built from. Each line is rebuilt only when the
+     * values it shows change, so a still map formats nothing.
+     */
+    static final class HudText {
+        private final ModConfig config;
+        String viewCoords;
+        String zoom;
+        String stats;
+        String playerCoords;
+        int playerCoordsWidth;
+
+        private int viewX;
+        private int viewZ;
+        private int zoomLevel;
+        private int playerCount;
+        private int townCount;
+        private int playerX;
+        private int playerZ;
+
+        HudText(ModConfig config) {
+            this.config = config;
+        }
+
+        void update(TextMetrics text, double viewCenterX, double viewCenterZ, int zoomLevel,
+                    int playerCount, int townCount, boolean hasPlayer, double playerX, double playerZ) {
+            int viewX = (int) viewCenterX;
+            int viewZ = (int) viewCenterZ;
+            if (viewCoords == null || viewX != this.viewX || viewZ != this.viewZ) {
+                this.viewX = viewX;
+                this.viewZ = viewZ;
+                viewCoords = "View: X: " + viewX + " Z: " + viewZ;
+            }
+
+            if (zoom == null || zoomLevel != this.zoomLevel) {
+                this.zoomLevel = zoomLevel;
+                zoom = "Zoom: " + zoomLevel + " (" + config.getMinZoom() + " to " + config.getMaxZoom() + ")";
+            }
+
+            if (stats == null || playerCount != this.playerCount || townCount != this.townCount) {
+                this.playerCount = playerCount;
+                this.townCount = townCount;
+                stats = "Players: " + playerCount + " | Towns: " + townCount;
+            }
+
+            if (hasPlayer) {
+                int blockX = (int) playerX;
+                int blockZ = (int) playerZ;
+                if (playerCoords == null || blockX != this.playerX || blockZ != this.playerZ) {
+                    this.playerX = blockX;
+                    this.playerZ = blockZ;
+                    playerCoords = "You: X: " + blockX + " Z: " + blockZ;
+                    playerCoordsWidth = text.width(playerCoords);
+                }
+            }
+        }
+    }
 }
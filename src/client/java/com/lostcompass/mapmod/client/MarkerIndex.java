@@ -0,0 +1,193 @@
+package com.lostcompass.mapmod.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Immutable uniform-grid index over markers, built once per poll on the fetch thread and
+ * swapped in whole, so render threads can query it without locking. Markers are grouped by
+ * cell in one array, and occupied cells are kept sorted so a query touches only the cells it
+ * overlaps (or, for queries wider than the map's occupied area, only the occupied cells).
+ */
+public final class MarkerIndex<T> {
+    private static final MarkerIndex<Object> EMPTY = new MarkerIndex<>(List.of(), 0, new long[0], new int[]{0},
+            new Object[0], new double[0], new double[0], 0);
+
+    private final List<T> all;
+    private final int cellShift;
+    private final long[] cellKeys;
+    private final int[] cellStarts;
+    private final Object[] items;
+    private final double[] xs;
+    private final double[] zs;
+    private final int version;
+
+    private MarkerIndex(List<T> all, int cellShift, long[] cellKeys, int[] cellStarts,
+                        Object[] items, double[] xs, double[] zs, int version) {
+        this.all = all;
+        this.cellShift = cellShift;
+        this.cellKeys = cellKeys;
+        this.cellStarts = cellStarts;
+        this.items = items;
+        this.xs = xs;
+        this.zs = zs;
+        this.version = version;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> MarkerIndex<T> empty() {
+        return (MarkerIndex<T>) EMPTY;
+    }
+
+    /**
+     * Indexes {@code markers} into cells of {@code 2^cellShift} blocks.
+     */
+    public static <T> MarkerIndex<T> build(List<T> markers, ToDoubleFunction<T> x, ToDoubleFunction<T> z,
+                                           int cellShift, int version) {
+        int n = markers.size();
+        long[] keys = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            T marker = markers.get(i);
+            keys[i] = cellKey(cell(x.applyAsDouble(marker), cellShift), cell(z.applyAsDouble(marker), cellShift));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+        Object[] items = new Object[n];
+        double[] xs = new double[n];
+        double[] zs = new double[n];
+        long[] cellKeys = new long[n];
+        int[] cellStarts = new int[n + 1];
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            T marker = markers.get(order[i]);
+            items[i] = marker;
+            xs[i] = x.applyAsDouble(marker);
+            zs[i] = z.applyAsDouble(marker);
+            long key = keys[order[i]];
+            if (cells == 0 || cellKeys[cells - 1] != key) {
+                cellKeys[cells] = key;
+                cellStarts[cells] = i;
+                cells++;
+            }
+        }
+        cellStarts[cells] = n;
+
+        return new MarkerIndex<>(List.copyOf(markers), cellShift,
+                Arrays.copyOf(cellKeys, cells), Arrays.copyOf(cellStarts, cells + 1), items, xs, zs, version);
+    }
+
+    private static int cell(double coordinate, int cellShift) {
+        return (int) Math.floor(coordinate) >> cellShift;
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return (long) cellX << 32 | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Appends every marker inside the rectangle (inclusive) to {@code out}.
+     *
+     * @return the number of markers appended
+     */
+    public int query(double minX, double minZ, double maxX, double maxZ, List<? super T> out) {
+        if (cellKeys.length == 0) {
+            return 0;
+        }
+        int cx0 = cell(minX, cellShift);
+        int cz0 = cell(minZ, cellShift);
+        int cx1 = cell(maxX, cellShift);
+        int cz1 = cell(maxZ, cellShift);
+        int found = 0;
+
+        long span = ((long) cx1 - cx0 + 1) * ((long) cz1 - cz0 + 1);
+        if (span > cellKeys.length) {
+            // Wider than the occupied area: walk occupied cells instead of empty ones
+            for (int c = 0; c < cellKeys.length; c++) {
+                int cx = (int) (cellKeys[c] >> 32);
+                int cz = (int) cellKeys[c];
+                if (cx >= cx0 && cx <= cx1 && cz >= cz0 && cz <= cz1) {
+                    found += collect(c, minX, minZ, maxX, maxZ, out);
+                }
+            }
+        } else {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cz = cz0; cz <= cz1; cz++) {
+                    int c = Arrays.binarySearch(cellKeys, cellKey(cx, cz));
+                    if (c >= 0) {
+                        found += collect(c, minX, minZ, maxX, maxZ, out);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int collect(int c, double minX, double minZ, double maxX, double maxZ, List<? super T> out) {
+        int found = 0;
+        for (int i = cellStarts[c]; i < cellStarts[c + 1]; i++) {
+            if (xs[i] >= minX && xs[i] <= maxX && zs[i] >= minZ && zs[i] <= maxZ) {
+                out.add((T) items[i]);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The marker closest to ({@code x}, {@code z}) that is strictly within {@code radius} blocks,
+     * or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T nearest(double x, double z, double radius) {
+        if (cellKeys.length == 0) {
+            return null;
+        }
+        int cx0 = cell(x - radius, cellShift);
+        int cz0 = cell(z - radius, cellShift);
+        int cx1 = cell(x + radius, cellShift);
+        int cz1 = cell(z + radius, cellShift);
+
+        int best = -1;
+        double bestDistanceSq = radius * radius;
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cz = cz0; cz <= cz1; cz++) {
+                int c = Arrays.binarySearch(cellKeys, cellKey(cx, cz));
+                if (c < 0) {
+                    continue;
+                }
+                for (int i = cellStarts[c]; i < cellStarts[c + 1]; i++) {
+                    double dx = xs[i] - x;
+                    double dz = zs[i] - z;
+                    double distanceSq = dx * dx + dz * dz;
+                    if (distanceSq < bestDistanceSq) {
+                        bestDistanceSq = distanceSq;
+                        best = i;
+                    }
+                }
+            }
+        }
+        return best >= 0 ? (T) items[best] : null;
+    }
+
+    /**
+     * Every indexed marker, in the order they were given to {@link #build}.
+     */
+    public List<T> all() {
+        return all;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * The version of the marker data this index was built from.
+     */
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,229 @@
+package com.lostcompass.mapmod.client;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parsers for the map server's marker feeds. Both read straight from the response
+ * stream with a {@link JsonReader}, keeping only the fields markers need and skipping the rest,
+ * so no JSON tree or whole-body string is ever built.
+ */
+public final class MarkerJsonParser {
+    private static final String RESIDENTS_LABEL = "Жители:";
+
+    private MarkerJsonParser() {}
+
+    /**
+     * Parses {@code players.json}: {@code {"players": [{"name", "uuid", "x", "y", "z", "yaw"}, ...]}}.
+     */
+    public static List<MarkerManager.PlayerMarker> parsePlayers(Reader in) throws IOException {
+        List<MarkerManager.PlayerMarker> players = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("players") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    MarkerManager.PlayerMarker player = readPlayer(reader);
+                    if (player != null) {
+                        players.add(player);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        return players;
+    }
+
+    private static MarkerManager.PlayerMarker readPlayer(JsonReader reader) throws IOException {
+        String name = null;
+        String uuid = "";
+        double x = 0, y = 0, z = 0;
+        float yaw = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (field) {
+                case "name" -> name = reader.nextString();
+                case "uuid" -> uuid = reader.nextString();
+                case "x" -> x = reader.nextDouble();
+                case "y" -> y = reader.nextDouble();
+                case "z" -> z = reader.nextDouble();
+                case "yaw" -> yaw = (float) reader.nextDouble();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return name != null ? new MarkerManager.PlayerMarker(name, uuid, x, y, z, yaw) : null;
+    }
+
+    /**
+     * Parses {@code markers.json}: an array of marker groups, each with a {@code markers} array.
+     * Only {@code icon} markers with a point and a non-empty name become towns.
+     */
+    public static List<MarkerManager.TownMarker> parseTowns(Reader in) throws IOException {
+        List<MarkerManager.TownMarker> towns = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("markers") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        MarkerManager.TownMarker town = readTown(reader);
+                        if (town != null) {
+                            towns.add(town);
+                        }
+                    }
+                    reader.endArray();
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        return towns;
+    }
+
+    private static MarkerManager.TownMarker readTown(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String type = "icon";
+        String tooltip = "";
+        String icon = "town_icon";
+        boolean hasPoint = false;
+        double x = 0, z = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (field) {
+                case "type" -> type = reader.nextString();
+                case "tooltip" -> tooltip = reader.nextString();
+                case "icon" -> icon = reader.nextString();
+                case "point" -> {
+                    hasPoint = true;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "x" -> x = reader.nextDouble();
+                            case "z" -> z = reader.nextDouble();
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!"icon".equals(type) || !hasPoint) {
+            return null;
+        }
+        String name = extractTownName(tooltip);
+        if (name.isEmpty()) {
+            return null;
+        }
+        return new MarkerManager.TownMarker(name, icon, x, z, countResidents(tooltip));
+    }
+
+    /**
+     * The town name from a marker tooltip: the first {@code <b>} element if there is one,
+     * otherwise the first {@code <br>}-separated line with tags removed.
+     */
+    public static String extractTownName(String tooltip) {
+        int bold = tooltip.indexOf("<b>");
+        if (bold >= 0) {
+            int start = bold + 3;
+            int end = tooltip.indexOf("</b>", start);
+            if (end > start) {
+                return trimmed(tooltip, start, end);
+            }
+        }
+
+        int end = tooltip.indexOf("<br>");
+        if (end < 0) {
+            end = tooltip.length();
+        }
+        int tag = tooltip.indexOf('<');
+        if (tag < 0 || tag >= end) {
+            return trimmed(tooltip, 0, end);
+        }
+
+        StringBuilder text = new StringBuilder(end);
+        boolean inTag = false;
+        for (int i = 0; i < end; i++) {
+            char c = tooltip.charAt(i);
+            if (c == '<') {
+                inTag = true;
+            } else if (c == '>' && inTag) {
+                inTag = false;
+            } else if (!inTag) {
+                text.append(c);
+            }
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Number of comma-separated names after the residents label, up to the end of that line.
+     */
+    public static int countResidents(String tooltip) {
+        int label = tooltip.indexOf(RESIDENTS_LABEL);
+        if (label < 0) {
+            return 0;
+        }
+        int start = label + RESIDENTS_LABEL.length();
+        int end = tooltip.indexOf("<br>", start);
+        if (end < 0) {
+            end = tooltip.length();
+        }
+
+        int count = 0;
+        boolean inName = false;
+        for (int i = start; i < end; i++) {
+            char c = tooltip.charAt(i);
+            if (c == ',') {
+                inName = false;
+            } else if (!inName && !Character.isWhitespace(c)) {
+                inName = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String trimmed(String s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+        return s.substring(start, end);
+    }
+}
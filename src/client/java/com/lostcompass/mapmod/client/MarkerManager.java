@@ -1,187 +1,356 @@
 package com.lostcompass.mapmod.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.lostcompass.mapmod.LostCompassMapMod;
 import com.lostcompass.mapmod.config.ModConfig;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.session.Session;
 
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.UUID;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 
 public class MarkerManager {
     private final ModConfig config;
-    private final HttpClient httpClient;
-    private final Gson gson;
+    private final MapHttpClient http;
+    private final MapMetrics metrics;
     private final ScheduledExecutorService scheduler;
 
-    private final List<PlayerMarker> players = new CopyOnWriteArrayList<>();
-    private final List<TownMarker> towns = new CopyOnWriteArrayList<>();
+    // Markers are indexed in 256-block cells
+    private static final int INDEX_CELL_SHIFT = 8;
+
+    private volatile PlayerSnapshot players = PlayerSnapshot.EMPTY;
+    private volatile MarkerIndex<TownMarker> towns = MarkerIndex.empty();
+    private final AtomicInteger version = new AtomicInteger();
+    private final Feed playersFeed;
+    private final Feed townsFeed;
+    // When the players feed last answered, changed or not; poll thread only
+    private long playersPolledAt = 0;
+
+    // Renderers report each frame what they show; demand lapses shortly after they stop
+    private static final long DEMAND_TIMEOUT_MILLIS = 1000;
+    private volatile long minimapShownAt = 0;
+    private volatile long mapShownAt = 0;
+
+    /**
+     * What the player can currently see, which decides how often markers are polled.
+     */
+    public enum Demand {
+        NONE,
+        MINIMAP,
+        MAP
+    }
 
     public record PlayerMarker(String name, String uuid, double x, double y, double z, float yaw) {}
     public record TownMarker(String name, String type, double x, double z, int residents) {}
 
-    public MarkerManager(ModConfig config) {
+    public MarkerManager(ModConfig config, MapHttpClient http, MapMetrics metrics) {
         this.config = config;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-        this.gson = new Gson();
+        this.http = http;
+        this.metrics = metrics;
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
 
-        scheduler.scheduleAtFixedRate(this::fetchPlayers, 0, 5, TimeUnit.SECONDS);
-        scheduler.scheduleAtFixedRate(this::fetchTowns, 0, 60, TimeUnit.SECONDS);
+        // Nothing is polled until a renderer reports demand
+        this.playersFeed = new Feed("/tiles/players.json", Duration.ofSeconds(10), this::fetchPlayers,
+                config::getPlayerPollMapMillis, config::getPlayerPollMinimapMillis, MapMetrics.Timer.PLAYER_POLL);
+        this.townsFeed = new Feed("/tiles/minecraft_overworld/markers.json", Duration.ofSeconds(30), this::fetchTowns,
+                config::getTownPollMapMillis, config::getTownPollMinimapMillis, MapMetrics.Timer.TOWN_POLL);
     }
 
-    private void fetchPlayers() {
-        try {
-            String url = config.getMapServerUrl() + "/tiles/players.json";
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(Duration.ofSeconds(10))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request,
-                    HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                parsePlayersJson(response.body());
-            }
-        } catch (Exception e) {
-            LostCompassMapMod.LOGGER.debug("Failed to fetch players: {}", e.getMessage());
+    /**
+     * A polled JSON feed: the validators from its last successful response, so unchanged
+     * payloads come back as an empty 304 instead of being downloaded and parsed again, and
+     * the state of its self-rescheduling poll.
+     */
+    private static final class Feed {
+        final String path;
+        final Duration timeout;
+        final BooleanSupplier poll;
+        final LongSupplier mapInterval;
+        final LongSupplier minimapInterval;
+        final MapMetrics.Timer timer;
+        String etag;
+        String lastModified;
+
+        volatile Demand scheduledFor = Demand.NONE;
+        ScheduledFuture<?> next;
+        boolean running = false;
+        int unchangedPolls = 0;
+
+        Feed(String path, Duration timeout, BooleanSupplier poll, LongSupplier mapInterval, LongSupplier minimapInterval,
+             MapMetrics.Timer timer) {
+            this.path = path;
+            this.timeout = timeout;
+            this.poll = poll;
+            this.mapInterval = mapInterval;
+            this.minimapInterval = minimapInterval;
+            this.timer = timer;
         }
     }
 
-    private void parsePlayersJson(String json) {
-        try {
-            JsonObject root = gson.fromJson(json, JsonObject.class);
-            JsonArray playersArray = root.getAsJsonArray("players");
-
-            List<PlayerMarker> newPlayers = new ArrayList<>();
-            if (playersArray != null) {
-                for (JsonElement element : playersArray) {
-                    JsonObject player = element.getAsJsonObject();
-                    String name = player.get("name").getAsString();
-                    String uuid = player.has("uuid") ? player.get("uuid").getAsString() : "";
-                    double x = player.get("x").getAsDouble();
-                    double y = player.get("y").getAsDouble();
-                    double z = player.get("z").getAsDouble();
-                    float yaw = player.has("yaw") ? player.get("yaw").getAsFloat() : 0;
-
-                    newPlayers.add(new PlayerMarker(name, uuid, x, y, z, yaw));
-                }
+    /**
+     * Called by renderers every frame they show markers. Polling runs only while something
+     * reports demand, at the rate of the most demanding view, and a view opening triggers an
+     * immediate poll if the feed was polling slower or not at all. Demand is ignored where
+     * there is no map server to poll.
+     */
+    public void reportDemand(Demand demand) {
+        if (!hasMapServer()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (demand == Demand.MAP) {
+            mapShownAt = now;
+        } else if (demand == Demand.MINIMAP) {
+            minimapShownAt = now;
+        }
+        wake(playersFeed, demand);
+        wake(townsFeed, demand);
+    }
+
+    private static boolean hasMapServer() {
+        // The map server belongs to the multiplayer server, so there is nothing to show in singleplayer
+        return !MinecraftClient.getInstance().isInSingleplayer();
+    }
+
+    private Demand currentDemand() {
+        if (!hasMapServer()) {
+            return Demand.NONE;
+        }
+        long now = System.currentTimeMillis();
+        if (now - mapShownAt < DEMAND_TIMEOUT_MILLIS) {
+            return Demand.MAP;
+        }
+        if (now - minimapShownAt < DEMAND_TIMEOUT_MILLIS) {
+            return Demand.MINIMAP;
+        }
+        return Demand.NONE;
+    }
+
+    private void wake(Feed feed, Demand demand) {
+        if (demand.ordinal() <= feed.scheduledFor.ordinal()) {
+            return;
+        }
+        synchronized (feed) {
+            // A running poll reschedules itself from the current demand when it finishes
+            if (feed.running || demand.ordinal() <= feed.scheduledFor.ordinal()) {
+                return;
             }
+            if (feed.next != null) {
+                feed.next.cancel(false);
+            }
+            schedule(feed, demand, 0);
+        }
+    }
 
-            players.clear();
-            players.addAll(newPlayers);
-        } catch (Exception e) {
-            LostCompassMapMod.LOGGER.debug("Failed to parse players JSON: {}", e.getMessage());
+    private void schedule(Feed feed, Demand demand, long delayMillis) {
+        feed.scheduledFor = demand;
+        try {
+            feed.next = scheduler.schedule(() -> poll(feed), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            feed.next = null;
         }
     }
 
-    private void fetchTowns() {
+    private void poll(Feed feed) {
+        synchronized (feed) {
+            feed.running = true;
+        }
+        boolean changed = false;
         try {
-            String url = config.getMapServerUrl() + "/tiles/minecraft_overworld/markers.json";
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(Duration.ofSeconds(30))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request,
-                    HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                parseTownsJson(response.body());
+            if (currentDemand() != Demand.NONE) {
+                long start = System.nanoTime();
+                changed = feed.poll.getAsBoolean();
+                metrics.recordSince(feed.timer, start);
+            }
+        } finally {
+            synchronized (feed) {
+                feed.running = false;
+                feed.unchangedPolls = changed ? 0 : feed.unchangedPolls + 1;
+                Demand demand = currentDemand();
+                if (demand == Demand.NONE) {
+                    // Paused until a renderer reports demand again
+                    feed.scheduledFor = Demand.NONE;
+                    feed.next = null;
+                } else {
+                    schedule(feed, demand, interval(feed, demand));
+                }
             }
-        } catch (Exception e) {
-            LostCompassMapMod.LOGGER.debug("Failed to fetch towns: {}", e.getMessage());
         }
     }
 
-    private void parseTownsJson(String json) {
-        try {
-            JsonArray root = gson.fromJson(json, JsonArray.class);
+    /**
+     * The base interval for the view, stretched by up to {@code pollBackoffMaxFactor} while the
+     * server keeps returning the same data.
+     */
+    private long interval(Feed feed, Demand demand) {
+        long base = demand == Demand.MAP ? feed.mapInterval.getAsLong() : feed.minimapInterval.getAsLong();
+        int factor = Math.max(1, config.getPollBackoffMaxFactor());
+        return base * Math.min(factor, 1L << Math.min(feed.unchangedPolls / 2, 16));
+    }
 
-            List<TownMarker> newTowns = new ArrayList<>();
-            for (JsonElement groupElement : root) {
-                JsonObject group = groupElement.getAsJsonObject();
-                if (!group.has("markers")) continue;
+    private interface FeedParser<T> {
+        List<T> parse(Reader reader) throws IOException;
+    }
 
-                JsonArray markers = group.getAsJsonArray("markers");
-                for (JsonElement markerElement : markers) {
-                    JsonObject marker = markerElement.getAsJsonObject();
+    /**
+     * Fetches a feed with a conditional request and parses the body as it streams in.
+     *
+     * @return the parsed markers, or null if the feed is unchanged or unavailable
+     */
+    private <T> List<T> fetchIfChanged(Feed feed, FeedParser<T> parser) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = MapHttpClient.get(config.getMapServerUrl() + feed.path, feed.timeout);
+        if (feed.etag != null) builder.header("If-None-Match", feed.etag);
+        if (feed.lastModified != null) builder.header("If-Modified-Since", feed.lastModified);
 
-                    String type = marker.has("type") ? marker.get("type").getAsString() : "icon";
-                    if (!"icon".equals(type)) continue;
+        HttpResponse<InputStream> response = http.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (CountingInputStream body = new CountingInputStream(response.body())) {
+            if (response.statusCode() != 200) {
+                return null;
+            }
+            List<T> parsed = parser.parse(new InputStreamReader(body, StandardCharsets.UTF_8));
+            // Only remember validators once the body parsed, so a broken payload is fetched again
+            feed.etag = response.headers().firstValue("ETag").orElse(null);
+            feed.lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+            return parsed;
+        }
+    }
 
-                    JsonObject point = marker.getAsJsonObject("point");
-                    if (point == null) continue;
+    /**
+     * Counts the body bytes actually read for the download metrics.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
 
-                    double x = point.get("x").getAsDouble();
-                    double z = point.get("z").getAsDouble();
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
-                    String tooltip = marker.has("tooltip") ? marker.get("tooltip").getAsString() : "";
-                    String name = extractTownName(tooltip);
-                    int residents = extractResidentCount(tooltip);
-                    String iconType = marker.has("icon") ? marker.get("icon").getAsString() : "town_icon";
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
 
-                    if (!name.isEmpty()) {
-                        newTowns.add(new TownMarker(name, iconType, x, z, residents));
-                    }
-                }
-            }
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
 
-            towns.clear();
-            towns.addAll(newTowns);
-            LostCompassMapMod.LOGGER.debug("Loaded {} towns", towns.size());
-        } catch (Exception e) {
-            LostCompassMapMod.LOGGER.debug("Failed to parse towns JSON: {}", e.getMessage());
+        @Override
+        public void close() throws IOException {
+            metrics.add(MapMetrics.Counter.MARKER_BYTES, count);
+            count = 0;
+            super.close();
         }
     }
 
-    private String extractTownName(String tooltip) {
-        if (tooltip.contains("<b>")) {
-            int start = tooltip.indexOf("<b>") + 3;
-            int end = tooltip.indexOf("</b>", start);
-            if (end > start) {
-                return tooltip.substring(start, end).trim();
+    /**
+     * @return whether the player data changed
+     */
+    private boolean fetchPlayers() {
+        try {
+            List<PlayerMarker> newPlayers = fetchIfChanged(playersFeed, MarkerJsonParser::parsePlayers);
+            long now = System.currentTimeMillis();
+            long lastPolledAt = playersPolledAt;
+            playersPolledAt = now;
+            if (newPlayers == null) {
+                return false;
+            }
+
+            PlayerSnapshot previous = players;
+            PlayerSnapshot snapshot = PlayerSnapshot.next(previous, newPlayers, localPlayerMatcher(),
+                    lastPolledAt, now);
+            if (snapshot == previous) {
+                return false;
             }
+            // Publish the snapshot before the version so readers never pair a new version with old data
+            players = snapshot;
+            version.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            LostCompassMapMod.LOGGER.debug("Failed to fetch players: {}", e.getMessage());
+            return false;
         }
-        return tooltip.split("<br>")[0].replaceAll("<[^>]*>", "").trim();
     }
 
-    private int extractResidentCount(String tooltip) {
+    /**
+     * Matches the local player's own marker by name or UUID, resolved once per poll from the
+     * session rather than per marker per frame.
+     */
+    private static Predicate<PlayerMarker> localPlayerMatcher() {
+        Session session = MinecraftClient.getInstance().getSession();
+        String name = session.getUsername();
+        UUID uuid = session.getUuidOrNull();
+        String uuidString = uuid != null ? uuid.toString() : null;
+        return marker -> marker.name().equals(name)
+                || (uuidString != null && !marker.uuid().isEmpty() && marker.uuid().equalsIgnoreCase(uuidString));
+    }
+
+    /**
+     * @return whether the town data changed
+     */
+    private boolean fetchTowns() {
         try {
-            if (tooltip.contains("Жители:")) {
-                int start = tooltip.indexOf("Жители:") + 7;
-                String rest = tooltip.substring(start);
-                String[] parts = rest.split("<br>")[0].split(",");
-                return parts.length;
+            List<TownMarker> newTowns = fetchIfChanged(townsFeed, MarkerJsonParser::parseTowns);
+            if (newTowns == null) {
+                return false;
             }
-        } catch (Exception ignored) {}
-        return 0;
+
+            // Publish the index before the version so readers never pair a new version with old data
+            towns = MarkerIndex.build(newTowns, TownMarker::x, TownMarker::z, INDEX_CELL_SHIFT, version.get() + 1);
+            version.incrementAndGet();
+            LostCompassMapMod.LOGGER.debug("Loaded {} towns", newTowns.size());
+            return true;
+        } catch (Exception e) {
+            LostCompassMapMod.LOGGER.debug("Failed to fetch towns: {}", e.getMessage());
+            return false;
+        }
     }
 
     public List<PlayerMarker> getPlayers() {
+        return players.getPlayers();
+    }
+
+    /**
+     * The latest player positions. Each poll that changes anything swaps in a new snapshot, so
+     * hold on to the returned one for a whole frame rather than calling this per query.
+     */
+    public PlayerSnapshot getPlayerSnapshot() {
         return players;
     }
 
-    public List<TownMarker> getTowns() {
+    public MarkerIndex<TownMarker> getTownIndex() {
         return towns;
     }
 
+    /**
+     * Bumped whenever either marker list is replaced, so renderers can skip unchanged data.
+     */
+    public int getVersion() {
+        return version.get();
+    }
+
     public void shutdown() {
         scheduler.shutdown();
     }
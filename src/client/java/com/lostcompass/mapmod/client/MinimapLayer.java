@@ -0,0 +1,253 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.lostcompass.mapmod.config.ModConfig;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gl.RenderPipelines;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.util.Identifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The minimap's tiles and town markers, composed into one texture that is only rebuilt when
+ * the view actually changes: the player crosses a map pixel, the zoom or size changes, a tile
+ * arrives or is evicted, or town data refreshes. Every other frame is a single blit.
+ * <p>
+ * Tiles are 1:1 with GUI pixels on the minimap, so the texture is {@code mapSize} square and
+ * composing is mostly block copies out of the atlas pages. Render thread only.
+ */
+public class MinimapLayer {
+    private static final Identifier TEXTURE_ID = Identifier.of(LostCompassMapMod.MOD_ID, "minimap");
+    private static final int BACKGROUND = 0xFF333333;
+    // While tiles are missing, recompose this often even if nothing changed so they get re-requested
+    private static final long INCOMPLETE_RECOMPOSE_MILLIS = 1000;
+
+    private final TileManager tileManager;
+    private final MarkerManager markerManager;
+    private final ModConfig config;
+    private final TileBatch tileBatch = new TileBatch();
+    private final MotionPrefetcher prefetcher;
+    private final TileViewTracker tileTracker;
+
+    private NativeImageBackedTexture texture;
+    private int textureSize = 0;
+
+    private int composedZoom = Integer.MIN_VALUE;
+    private long composedPixelX;
+    private long composedPixelZ;
+    private long composedTileVersion = -1;
+    private int composedTownVersion = -1;
+    private boolean complete = false;
+    private long composedAt = 0;
+
+    private double composedCenterX;
+    private double composedCenterZ;
+    private double composedPixelsPerBlock;
+
+    private final List<MarkerManager.TownMarker> visibleTowns = new ArrayList<>();
+    // Other players move between polls, so their arrows are drawn over the blit every frame
+    private final List<PlayerSnapshot.Entry> nearbyPlayers = new ArrayList<>();
+    private PlayerSnapshot nearbySnapshot;
+
+    public MinimapLayer(TileManager tileManager, MarkerManager markerManager, ModConfig config) {
+        this.tileManager = tileManager;
+        this.markerManager = markerManager;
+        this.config = config;
+        this.prefetcher = new MotionPrefetcher(tileManager, config);
+        this.tileTracker = tileManager.createViewTracker(0);
+    }
+
+    /**
+     * Recomposes the layer if anything it shows has changed since the last call.
+     *
+     * @return whether the layer was recomposed
+     */
+    public boolean update(PlayerEntity player, int zoom, int mapSize) {
+        prefetcher.observe(player.getX(), player.getZ());
+        double pixelsPerBlock = (double) config.getTileSize() / config.getBlocksPerTile(zoom);
+        long pixelX = (long) Math.floor(player.getX() * pixelsPerBlock);
+        long pixelZ = (long) Math.floor(player.getZ() * pixelsPerBlock);
+        long tileVersion = tileManager.getCacheVersion();
+        int townVersion = markerManager.getTownIndex().getVersion();
+        long now = System.currentTimeMillis();
+
+        boolean unchanged = zoom == composedZoom && mapSize == textureSize
+                && pixelX == composedPixelX && pixelZ == composedPixelZ
+                && tileVersion == composedTileVersion && townVersion == composedTownVersion;
+        if (unchanged && (complete || now - composedAt < INCOMPLETE_RECOMPOSE_MILLIS)) {
+            if (nearbySnapshot != markerManager.getPlayerSnapshot()) {
+                findNearbyPlayers(mapSize);
+            }
+            return false;
+        }
+
+        ensureTexture(mapSize);
+        NativeImage image = texture.getImage();
+        image.fillRect(0, 0, mapSize, mapSize, BACKGROUND);
+
+        complete = composeTiles(image, player, zoom, mapSize, pixelsPerBlock);
+        composedCenterX = player.getX();
+        composedCenterZ = player.getZ();
+        composedPixelsPerBlock = pixelsPerBlock;
+        composeTowns(image, mapSize);
+        findNearbyPlayers(mapSize);
+        texture.upload();
+
+        composedZoom = zoom;
+        composedPixelX = pixelX;
+        composedPixelZ = pixelZ;
+        composedTileVersion = tileVersion;
+        composedTownVersion = townVersion;
+        composedAt = now;
+        return true;
+    }
+
+    private boolean composeTiles(NativeImage image, PlayerEntity player, int zoom, int mapSize, double pixelsPerBlock) {
+        double playerX = player.getX();
+        double playerZ = player.getZ();
+        int tileSize = config.getTileSize();
+        int blocksPerTile = config.getBlocksPerTile(zoom);
+
+        int centerTileX = TileMath.tileCoord(playerX, blocksPerTile);
+        int centerTileY = TileMath.tileCoord(playerZ, blocksPerTile);
+
+        double tileOffsetX = (playerX - centerTileX * blocksPerTile) * pixelsPerBlock;
+        double tileOffsetY = (playerZ - centerTileY * blocksPerTile) * pixelsPerBlock;
+
+        // The tracker requests tiles as they come into view; the prefetcher handles what's ahead
+        double halfBlocks = mapSize / 2.0 / pixelsPerBlock;
+        tileTracker.update(zoom,
+                TileMath.tileCoord(playerX - halfBlocks, blocksPerTile),
+                TileMath.tileCoord(playerZ - halfBlocks, blocksPerTile),
+                TileMath.tileCoord(playerX + halfBlocks, blocksPerTile),
+                TileMath.tileCoord(playerZ + halfBlocks, blocksPerTile));
+        int minTileX = tileTracker.getMinX();
+        int minTileY = tileTracker.getMinY();
+        int maxTileX = tileTracker.getMaxX();
+        int maxTileY = tileTracker.getMaxY();
+
+        // Prefetch ahead of the player's travel; the focus keeps whatever that reaches
+        int reach = prefetcher.prefetch(playerX, playerZ, zoom, halfBlocks);
+        int visibleReach = Math.max(Math.max(centerTileX - minTileX, maxTileX - centerTileX),
+                Math.max(centerTileY - minTileY, maxTileY - centerTileY));
+        tileManager.setViewFocus(playerX, playerZ, zoom, Math.max(visibleReach, reach) + 1);
+
+        boolean allLoaded = true;
+        tileBatch.begin(0, 0, mapSize, mapSize);
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                int layerX = (int) (mapSize / 2.0 - tileOffsetX + (tileX - centerTileX) * tileSize);
+                int layerY = (int) (mapSize / 2.0 - tileOffsetY + (tileY - centerTileY) * tileSize);
+
+                TileManager.CachedTile tile = tileManager.getTile(zoom, tileX, tileY);
+                if (tile != null) {
+                    tileBatch.add(tile, 0, 0, tileSize, layerX, layerY, tileSize);
+                } else {
+                    allLoaded = false;
+                    tileManager.drawFallback(tileBatch, zoom, tileX, tileY, layerX, layerY, tileSize);
+                }
+            }
+        }
+        tileBatch.compose(image);
+        return allLoaded;
+    }
+
+    private void composeTowns(NativeImage image, int mapSize) {
+        double halfBlocks = mapSize / 2.0 / composedPixelsPerBlock;
+
+        visibleTowns.clear();
+        markerManager.getTownIndex().query(composedCenterX - halfBlocks, composedCenterZ - halfBlocks,
+                composedCenterX + halfBlocks, composedCenterZ + halfBlocks, visibleTowns);
+        for (int i = 0; i < visibleTowns.size(); i++) {
+            MarkerManager.TownMarker town = visibleTowns.get(i);
+            int townX = layerX(town.x());
+            int townY = layerY(town.z());
+
+            if (townX >= 0 && townX <= mapSize && townY >= 0 && townY <= mapSize) {
+                boolean capital = town.type().contains("capital");
+                int size = capital ? 3 : 2;
+                int x0 = Math.max(0, townX - size);
+                int y0 = Math.max(0, townY - size);
+                int x1 = Math.min(mapSize, townX + size);
+                int y1 = Math.min(mapSize, townY + size);
+                if (x1 > x0 && y1 > y0) {
+                    image.fillRect(x0, y0, x1 - x0, y1 - y0, capital ? 0xFFFFD700 : 0xFF00FF00);
+                }
+            }
+        }
+    }
+
+    private void findNearbyPlayers(int mapSize) {
+        double halfBlocks = mapSize / 2.0 / composedPixelsPerBlock;
+        nearbySnapshot = markerManager.getPlayerSnapshot();
+        nearbyPlayers.clear();
+        nearbySnapshot.queryOthers(composedCenterX - halfBlocks, composedCenterZ - halfBlocks,
+                composedCenterX + halfBlocks, composedCenterZ + halfBlocks, nearbyPlayers);
+    }
+
+    /**
+     * Layer x coordinate of a world position, as of the last composition.
+     */
+    public int layerX(double worldX) {
+        return (int) (textureSize / 2.0 + (worldX - composedCenterX) * composedPixelsPerBlock);
+    }
+
+    public int layerY(double worldZ) {
+        return (int) (textureSize / 2.0 + (worldZ - composedCenterZ) * composedPixelsPerBlock);
+    }
+
+    private void ensureTexture(int size) {
+        if (texture != null && textureSize == size) {
+            return;
+        }
+        if (texture != null) {
+            destroyTexture();
+        }
+        texture = new NativeImageBackedTexture(TEXTURE_ID::toString, size, size, false);
+        MinecraftClient.getInstance().getTextureManager().registerTexture(TEXTURE_ID, texture);
+        tileManager.getMetrics().increment(MapMetrics.Counter.TEXTURES_REGISTERED);
+        textureSize = size;
+    }
+
+    /**
+     * Blits the composed layer. Call {@link #update} first.
+     */
+    public void draw(DrawContext context, int x, int y) {
+        if (texture == null) {
+            return;
+        }
+        context.drawTexture(RenderPipelines.GUI_TEXTURED, TEXTURE_ID, x, y, 0, 0,
+                textureSize, textureSize, textureSize, textureSize);
+    }
+
+    /**
+     * Other players who may be on the minimap, from {@link #getNearbySnapshot()}. Cull on their
+     * interpolated position.
+     */
+    public List<PlayerSnapshot.Entry> getNearbyPlayers() {
+        return nearbyPlayers;
+    }
+
+    public PlayerSnapshot getNearbySnapshot() {
+        return nearbySnapshot;
+    }
+
+    public void close() {
+        tileTracker.clear();
+        if (texture != null) {
+            destroyTexture();
+            texture = null;
+            textureSize = 0;
+        }
+    }
+
+    private void destroyTexture() {
+        MinecraftClient.getInstance().getTextureManager().destroyTexture(TEXTURE_ID);
+        tileManager.getMetrics().increment(MapMetrics.Counter.TEXTURES_DESTROYED);
+    }
+}
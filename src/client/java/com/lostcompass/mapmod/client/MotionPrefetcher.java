@@ -0,0 +1,130 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+
+// Prefetches minimap tiles ahead of a moving player, further the faster they move and the
+// slower tiles currently arrive. Render thread only
+public class MotionPrefetcher {
+    // Velocity smoothing time constant; positions only change once per tick, so frames jitter
+    private static final double SMOOTHING_SECONDS = 0.5;
+    // Below this speed (blocks per second) the player counts as standing still
+    private static final double MIN_SPEED = 2;
+    // Faster than this is a teleport, not travel
+    private static final double MAX_SPEED = 400;
+    // The lookahead covers this multiple of the measured latency
+    private static final double LATENCY_SAFETY = 2;
+    // An unchanged walk is repeated this often so failed fetches get re-requested
+    private static final long REWALK_NANOS = 1_000_000_000L;
+    private static final int MAX_AHEAD_TILES = 4;
+
+    private final TileManager tileManager;
+    private final ModConfig config;
+
+    private boolean hasPosition = false;
+    private double lastX;
+    private double lastZ;
+    private long lastNanos;
+    private double velocityX;
+    private double velocityZ;
+
+    // The last walk, so identical ones are skipped
+    private int walkedZoom = Integer.MIN_VALUE;
+    private int walkedFromX;
+    private int walkedFromY;
+    private int walkedToX;
+    private int walkedToY;
+    private long walkedAt;
+    private int walkedReach;
+
+    public MotionPrefetcher(TileManager tileManager, ModConfig config) {
+        this.tileManager = tileManager;
+        this.config = config;
+    }
+
+    // Every frame, not just on recompose, so the velocity decays once the player stops
+    public void observe(double x, double z) {
+        long now = System.nanoTime();
+        if (hasPosition) {
+            double seconds = (now - lastNanos) / 1e9;
+            if (seconds <= 0) {
+                return;
+            }
+            double vx = (x - lastX) / seconds;
+            double vz = (z - lastZ) / seconds;
+            if (seconds > 1 || vx * vx + vz * vz > MAX_SPEED * MAX_SPEED) {
+                // Paused, or teleported: start over rather than predict from a jump
+                velocityX = 0;
+                velocityZ = 0;
+            } else {
+                double alpha = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+                velocityX += alpha * (vx - velocityX);
+                velocityZ += alpha * (vz - velocityZ);
+            }
+        }
+        lastX = x;
+        lastZ = z;
+        lastNanos = now;
+        hasPosition = true;
+    }
+
+    // Skips tiles walked within the last second. Returns how far, in tiles at zoom, the prefetch
+    // reaches from the player's tile
+    public int prefetch(double x, double z, int zoom, double halfBlocks) {
+        int blocksPerTile = config.getBlocksPerTile(zoom);
+        double aheadX = 0;
+        double aheadZ = 0;
+        double speed = Math.sqrt(velocityX * velocityX + velocityZ * velocityZ);
+        if (speed >= MIN_SPEED) {
+            double distance = Math.min(speed * tileManager.getTileLatencyMicros() / 1e6 * LATENCY_SAFETY,
+                    (double) MAX_AHEAD_TILES * blocksPerTile);
+            aheadX = velocityX / speed * distance;
+            aheadZ = velocityZ / speed * distance;
+        }
+
+        int fromX = TileMath.tileCoord(x, blocksPerTile);
+        int fromY = TileMath.tileCoord(z, blocksPerTile);
+        int toX = TileMath.tileCoord(x + aheadX, blocksPerTile);
+        int toY = TileMath.tileCoord(z + aheadZ, blocksPerTile);
+        long now = System.nanoTime();
+        if (zoom == walkedZoom && fromX == walkedFromX && fromY == walkedFromY && toX == walkedToX
+                && toY == walkedToY && now - walkedAt < REWALK_NANOS) {
+            return walkedReach;
+        }
+        walkedZoom = zoom;
+        walkedFromX = fromX;
+        walkedFromY = fromY;
+        walkedToX = toX;
+        walkedToY = toY;
+        walkedAt = now;
+
+        if (aheadX == 0 && aheadZ == 0) {
+            walkedReach = walkWindow(zoom, x, z, halfBlocks + blocksPerTile, blocksPerTile, fromX, fromY);
+            return walkedReach;
+        }
+        // Sweep the window forward in half-tile steps so no tile along the path is skipped
+        int steps = (int) Math.ceil(Math.sqrt(aheadX * aheadX + aheadZ * aheadZ) / (blocksPerTile / 2.0));
+        int reach = 0;
+        for (int i = 1; i <= steps; i++) {
+            double t = (double) i / steps;
+            reach = Math.max(reach, walkWindow(zoom, x + aheadX * t, z + aheadZ * t, halfBlocks,
+                    blocksPerTile, fromX, fromY));
+        }
+        walkedReach = reach;
+        return reach;
+    }
+
+    private int walkWindow(int zoom, double x, double z, double halfBlocks, int blocksPerTile, int originX, int originY) {
+        int minX = TileMath.tileCoord(x - halfBlocks, blocksPerTile);
+        int maxX = TileMath.tileCoord(x + halfBlocks, blocksPerTile);
+        int minY = TileMath.tileCoord(z - halfBlocks, blocksPerTile);
+        int maxY = TileMath.tileCoord(z + halfBlocks, blocksPerTile);
+        int reach = 0;
+        for (int tileY = minY; tileY <= maxY; tileY++) {
+            for (int tileX = minX; tileX <= maxX; tileX++) {
+                tileManager.requestTile(zoom, tileX, tileY, TileFetchScheduler.Priority.PREFETCH);
+                reach = Math.max(reach, Math.max(Math.abs(tileX - originX), Math.abs(tileY - originY)));
+            }
+        }
+        return reach;
+    }
+}
@@ -0,0 +1,160 @@
+package com.lostcompass.mapmod.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * One poll's worth of player positions, immutable and swapped in atomically by
+ * {@link MarkerManager}. Each entry remembers where that player was in the previous snapshot,
+ * so renderers can move markers smoothly between polls instead of jumping every few seconds.
+ * Markers are interpolated one poll interval behind rather than extrapolated ahead, which keeps
+ * them on paths players actually took instead of overshooting turns and stops.
+ */
+public final class PlayerSnapshot {
+    // Markers are indexed in 256-block cells
+    private static final int INDEX_CELL_SHIFT = 8;
+    // After a longer gap (polling was paused) markers jump instead of crawling across the map
+    private static final long MAX_INTERPOLATION_MILLIS = 30_000;
+
+    public static final PlayerSnapshot EMPTY = new PlayerSnapshot(List.of(), Map.of(),
+            MarkerIndex.empty(), 0, 0, 0);
+
+    private final List<MarkerManager.PlayerMarker> players;
+    private final Map<String, MarkerManager.PlayerMarker> byId;
+    private final MarkerIndex<Entry> others;
+    private final long timestamp;
+    private final long interval;
+    private final double maxMovement;
+
+    /**
+     * A player other than the local one, with the position it is moving from.
+     */
+    public static final class Entry {
+        private final MarkerManager.PlayerMarker marker;
+        private final double fromX;
+        private final double fromZ;
+        private final float fromYaw;
+
+        private Entry(MarkerManager.PlayerMarker marker, MarkerManager.PlayerMarker from) {
+            this.marker = marker;
+            this.fromX = from != null ? from.x() : marker.x();
+            this.fromZ = from != null ? from.z() : marker.z();
+            this.fromYaw = from != null ? from.yaw() : marker.yaw();
+        }
+
+        public MarkerManager.PlayerMarker marker() {
+            return marker;
+        }
+
+        public double x(double alpha) {
+            return fromX + (marker.x() - fromX) * alpha;
+        }
+
+        public double z(double alpha) {
+            return fromZ + (marker.z() - fromZ) * alpha;
+        }
+
+        public float yaw(double alpha) {
+            // Turn the short way round
+            float diff = ((marker.yaw() - fromYaw) % 360 + 540) % 360 - 180;
+            return (float) (fromYaw + diff * alpha);
+        }
+    }
+
+    private PlayerSnapshot(List<MarkerManager.PlayerMarker> players, Map<String, MarkerManager.PlayerMarker> byId,
+                           MarkerIndex<Entry> others, long timestamp, long interval, double maxMovement) {
+        this.players = players;
+        this.byId = byId;
+        this.others = others;
+        this.timestamp = timestamp;
+        this.interval = interval;
+        this.maxMovement = maxMovement;
+    }
+
+    private static String idOf(MarkerManager.PlayerMarker marker) {
+        return marker.uuid().isEmpty() ? marker.name() : marker.uuid();
+    }
+
+    /**
+     * Builds the snapshot that follows {@code previous}, or returns {@code previous} itself if
+     * nothing changed so consumers keyed on identity or version don't redo work.
+     *
+     * @param isLocal     identifies the local player, who is kept out of the index
+     * @param lastPolledAt when the feed was last polled, whether or not that poll changed
+     *                     anything; 0 if never
+     */
+    public static PlayerSnapshot next(PlayerSnapshot previous, List<MarkerManager.PlayerMarker> players,
+                                      Predicate<MarkerManager.PlayerMarker> isLocal, long lastPolledAt, long now) {
+        Map<String, MarkerManager.PlayerMarker> byId = new HashMap<>(players.size() * 2);
+        List<Entry> entries = new ArrayList<>(players.size());
+        boolean foundLocal = false;
+        int joined = 0;
+        int moved = 0;
+        double maxMovement = 0;
+
+        for (MarkerManager.PlayerMarker marker : players) {
+            String id = idOf(marker);
+            byId.put(id, marker);
+            MarkerManager.PlayerMarker before = previous.byId.get(id);
+            if (before == null) {
+                joined++;
+            } else if (!before.equals(marker)) {
+                moved++;
+                maxMovement = Math.max(maxMovement,
+                        Math.max(Math.abs(marker.x() - before.x()), Math.abs(marker.z() - before.z())));
+            }
+
+            if (!foundLocal && isLocal.test(marker)) {
+                foundLocal = true;
+            } else {
+                entries.add(new Entry(marker, before));
+            }
+        }
+        int left = 0;
+        for (String id : previous.byId.keySet()) {
+            if (!byId.containsKey(id)) left++;
+        }
+
+        // The delta is consumed here rather than kept: an empty one keeps the previous snapshot,
+        // and the largest move pads index queries for markers still on their way
+        if (joined == 0 && left == 0 && moved == 0 && previous != EMPTY) {
+            return previous;
+        }
+
+        // Interpolate over the time since the previous poll, not the previous change: after an
+        // idle stretch the move still happened within one poll interval
+        long interval = lastPolledAt > 0 ? now - lastPolledAt : 0;
+        if (interval > MAX_INTERPOLATION_MILLIS) {
+            interval = 0;
+        }
+        return new PlayerSnapshot(List.copyOf(players), byId,
+                MarkerIndex.build(entries, e -> e.marker.x(), e -> e.marker.z(), INDEX_CELL_SHIFT, 0),
+                now, interval, maxMovement);
+    }
+
+    /**
+     * How far along the move from the previous to this snapshot markers should be drawn at
+     * {@code now}, from 0 to 1.
+     */
+    public double alpha(long now) {
+        if (interval <= 0) {
+            return 1;
+        }
+        return Math.min(1, Math.max(0, (double) (now - timestamp) / interval));
+    }
+
+    /**
+     * Other players within the rectangle, padded by how far anyone moved since the last poll so
+     * players interpolating into view are included. Callers still cull on drawn position.
+     */
+    public int queryOthers(double minX, double minZ, double maxX, double maxZ, List<? super Entry> out) {
+        return others.query(minX - maxMovement, minZ - maxMovement, maxX + maxMovement, maxZ + maxMovement, out);
+    }
+
+    public List<MarkerManager.PlayerMarker> getPlayers() {
+        return players;
+    }
+}
@@ -0,0 +1,262 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.lostcompass.mapmod.config.ModConfig;
+
+import java.util.function.Consumer;
+
+/**
+ * Downloads every server tile inside a world rectangle over a range of zoom levels into the
+ * disk cache, so the map can later be browsed without streaming tiles. One download runs at a
+ * time on its own thread, paced to {@code downloadRequestsPerSecond}. It yields to the views'
+ * own fetches and waits out map host outages instead of failing through the whole region.
+ * <p>
+ * Tiles already fresh on disk are skipped without a request, so an interrupted download can
+ * simply be started again.
+ */
+public class RegionDownloader {
+    // How often a paused or yielding download re-checks its state
+    private static final long WAIT_MILLIS = 250;
+
+    private final TileManager tileManager;
+    private final ModConfig config;
+
+    private Job job;
+
+    public enum State {
+        RUNNING,
+        PAUSED,
+        DONE,
+        CANCELLED
+    }
+
+    /**
+     * A world rectangle (inclusive block coordinates) and an inclusive range of server zooms.
+     */
+    public record Region(int minX, int minZ, int maxX, int maxZ, int minZoom, int maxZoom) {
+        public Region {
+            if (minX > maxX) {
+                int t = minX;
+                minX = maxX;
+                maxX = t;
+            }
+            if (minZ > maxZ) {
+                int t = minZ;
+                minZ = maxZ;
+                maxZ = t;
+            }
+        }
+    }
+
+    public record Progress(Region region, State state, int total, int done, int downloaded, int missing, int failed) {
+        public double fraction() {
+            return total > 0 ? (double) done / total : 1;
+        }
+    }
+
+    private final class Job implements Runnable {
+        final Region region;
+        final int total;
+        final Consumer<Progress> onFinish;
+        volatile State state = State.RUNNING;
+        volatile int done = 0;
+        volatile int downloaded = 0;
+        volatile int missing = 0;
+        volatile int failed = 0;
+
+        Job(Region region, int total, Consumer<Progress> onFinish) {
+            this.region = region;
+            this.total = total;
+            this.onFinish = onFinish;
+        }
+
+        Progress progress() {
+            return new Progress(region, state, total, done, downloaded, missing, failed);
+        }
+
+        @Override
+        public void run() {
+            long nanosPerRequest = (long) (1e9 / Math.max(0.1, config.getDownloadRequestsPerSecond()));
+            long nextRequestAt = System.nanoTime();
+            try {
+                for (int zoom = region.minZoom(); zoom <= region.maxZoom(); zoom++) {
+                    int blocksPerTile = config.getBlocksPerTile(zoom);
+                    int minTileX = Math.floorDiv(region.minX(), blocksPerTile);
+                    int maxTileX = Math.floorDiv(region.maxX(), blocksPerTile);
+                    int minTileY = Math.floorDiv(region.minZ(), blocksPerTile);
+                    int maxTileY = Math.floorDiv(region.maxZ(), blocksPerTile);
+
+                    for (int y = minTileY; y <= maxTileY; y++) {
+                        for (int x = minTileX; x <= maxTileX; x++) {
+                            TileManager.TileKey key = new TileManager.TileKey(zoom, x, y);
+                            while (true) {
+                                if (!awaitTurn(nextRequestAt)) {
+                                    return;
+                                }
+                                try {
+                                    if (tileManager.downloadToDisk(key)) {
+                                        downloaded++;
+                                        nextRequestAt = System.nanoTime() + nanosPerRequest;
+                                    }
+                                } catch (TileFetchException e) {
+                                    if (e.getStatusCode() == 0) {
+                                        // Host is down; retry this tile once the breaker lets us
+                                        nextRequestAt = System.nanoTime() + nanosPerRequest;
+                                        continue;
+                                    }
+                                    if (e.getStatusCode() == 404) {
+                                        missing++;
+                                    } else {
+                                        failed++;
+                                    }
+                                    nextRequestAt = System.nanoTime() + nanosPerRequest;
+                                } catch (InterruptedException e) {
+                                    return;
+                                } catch (Exception e) {
+                                    LostCompassMapMod.LOGGER.debug("Region download of tile {} failed: {}", key, e.getMessage());
+                                    failed++;
+                                    nextRequestAt = System.nanoTime() + nanosPerRequest;
+                                }
+                                break;
+                            }
+                            done++;
+                        }
+                    }
+                }
+                state = State.DONE;
+            } finally {
+                if (state != State.DONE) {
+                    state = State.CANCELLED;
+                }
+                LostCompassMapMod.LOGGER.info("Region download {}: {} of {} tiles, {} downloaded, {} missing, {} failed",
+                        state == State.DONE ? "finished" : "cancelled", done, total, downloaded, missing, failed);
+                onFinish.accept(progress());
+            }
+        }
+
+        /**
+         * Waits until the next request may go out: the pacing interval has passed, the job
+         * isn't paused, the views have no fetches queued and the map host is accepting
+         * requests.
+         *
+         * @return false if the job was cancelled
+         */
+        private boolean awaitTurn(long nextRequestAt) {
+            try {
+                while (true) {
+                    if (state == State.CANCELLED || Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    long wait = Math.max(0, (nextRequestAt - System.nanoTime()) / 1_000_000);
+                    if (state == State.PAUSED || tileManager.getScheduler().getQueuedCount() > 0) {
+                        wait = Math.max(wait, WAIT_MILLIS);
+                    } else if (tileManager.isServerUnavailable()) {
+                        wait = Math.max(wait, Math.clamp(tileManager.getServerRetryAt() - System.currentTimeMillis(),
+                                WAIT_MILLIS, WAIT_MILLIS * 20));
+                    }
+                    if (wait <= 0) {
+                        return true;
+                    }
+                    Thread.sleep(wait);
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    public RegionDownloader(TileManager tileManager, ModConfig config) {
+        this.tileManager = tileManager;
+        this.config = config;
+    }
+
+    /**
+     * Number of tiles a download of the region would cover.
+     */
+    public long countTiles(Region region) {
+        long total = 0;
+        for (int zoom = region.minZoom(); zoom <= region.maxZoom(); zoom++) {
+            int blocksPerTile = config.getBlocksPerTile(zoom);
+            long columns = Math.floorDiv(region.maxX(), blocksPerTile) - Math.floorDiv(region.minX(), blocksPerTile) + 1L;
+            long rows = Math.floorDiv(region.maxZ(), blocksPerTile) - Math.floorDiv(region.minZ(), blocksPerTile) + 1L;
+            total += columns * rows;
+        }
+        return total;
+    }
+
+    /**
+     * Starts downloading a region. The zoom range must lie within the server's zooms; coarser
+     * levels are built from server tiles and need nothing extra.
+     *
+     * @param onFinish called on the download thread once the job ends or is cancelled
+     * @throws IllegalStateException if a download is already running or paused, or there is
+     *                               no disk cache to download into
+     * @throws IllegalArgumentException if the region is too large or the zooms are out of range
+     */
+    public synchronized Progress start(Region region, Consumer<Progress> onFinish) {
+        if (tileManager.getDiskCache() == null) {
+            throw new IllegalStateException("The tile disk cache is disabled");
+        }
+        if (isActive()) {
+            throw new IllegalStateException("A region download is already in progress");
+        }
+        if (region.minZoom() > region.maxZoom()
+                || region.minZoom() < config.getServerMinZoom() || region.maxZoom() > config.getServerMaxZoom()) {
+            throw new IllegalArgumentException("Zoom levels must be between " + config.getServerMinZoom()
+                    + " and " + config.getServerMaxZoom());
+        }
+        long total = countTiles(region);
+        if (total > config.getDownloadMaxTiles()) {
+            throw new IllegalArgumentException("Region covers " + total + " tiles, more than the limit of "
+                    + config.getDownloadMaxTiles());
+        }
+
+        job = new Job(region, (int) total, onFinish);
+        Thread.ofVirtual().name("LostCompass region download").start(job);
+        return job.progress();
+    }
+
+    public synchronized boolean isActive() {
+        return job != null && (job.state == State.RUNNING || job.state == State.PAUSED);
+    }
+
+    /**
+     * @return whether a running download was paused
+     */
+    public synchronized boolean pause() {
+        if (job == null || job.state != State.RUNNING) {
+            return false;
+        }
+        job.state = State.PAUSED;
+        return true;
+    }
+
+    /**
+     * @return whether a paused download was resumed
+     */
+    public synchronized boolean resume() {
+        if (job == null || job.state != State.PAUSED) {
+            return false;
+        }
+        job.state = State.RUNNING;
+        return true;
+    }
+
+    /**
+     * @return whether an active download was cancelled
+     */
+    public synchronized boolean cancel() {
+        if (!isActive()) {
+            return false;
+        }
+        job.state = State.CANCELLED;
+        return true;
+    }
+
+    /**
+     * Progress of the current or last download, or null if there has been none.
+     */
+    public synchronized Progress getProgress() {
+        return job != null ? job.progress() : null;
+    }
+}
@@ -0,0 +1,27 @@
+package com.lostcompass.mapmod.client;
+
+import net.minecraft.client.font.TextRenderer;
+
+/**
+ * Measures text the way it will be drawn. In game this is the client's text renderer; layout
+ * and HUD code only depend on this, so it also runs in benchmarks, without a client.
+ */
+public interface TextMetrics {
+    int width(String text);
+
+    int fontHeight();
+
+    static TextMetrics of(TextRenderer textRenderer) {
+        return new TextMetrics() {
+            @Override
+            public int width(String text) {
+                return textRenderer.getWidth(text);
+            }
+
+            @Override
+            public int fontHeight() {
+                return textRenderer.fontHeight;
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.util.Identifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs map tiles into the slots of a few large textures so the renderers can draw many
+ * tiles without switching textures. Pages are created on demand and released once empty.
+ * All methods must be called on the render thread.
+ */
+public class TileAtlas {
+    private final int pageSize;
+    private final int tileSize;
+    private final int slotsPerRow;
+    private final List<Page> pages = new ArrayList<>();
+    private final MapMetrics metrics;
+    private int pageIdCounter = 0;
+
+    public static class Page {
+        private final Identifier textureId;
+        private final NativeImageBackedTexture texture;
+        private final boolean[] used;
+        private int usedSlots = 0;
+
+        private Page(Identifier textureId, NativeImageBackedTexture texture, int slots) {
+            this.textureId = textureId;
+            this.texture = texture;
+            this.used = new boolean[slots];
+        }
+
+        public Identifier getTextureId() {
+            return textureId;
+        }
+
+        public NativeImage getImage() {
+            return texture.getImage();
+        }
+    }
+
+    public record Slot(Page page, int index, int u, int v) {}
+
+    public TileAtlas(int pageSize, int tileSize, MapMetrics metrics) {
+        this.pageSize = pageSize;
+        this.tileSize = tileSize;
+        this.metrics = metrics;
+        this.slotsPerRow = Math.max(1, pageSize / tileSize);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Memory one page holds on each side: its texture on the GPU and its native copy on the CPU.
+     */
+    public long getPageBytes() {
+        return (long) pageSize * pageSize * 4;
+    }
+
+    /**
+     * Memory held by all pages, whether or not their slots are in use (same on CPU and GPU).
+     */
+    public long getReservedBytes() {
+        return pages.size() * getPageBytes();
+    }
+
+    public Slot allocate() {
+        for (Page page : pages) {
+            if (page.usedSlots < page.used.length) {
+                return claim(page);
+            }
+        }
+        return claim(createPage());
+    }
+
+    private Slot claim(Page page) {
+        for (int index = 0; index < page.used.length; index++) {
+            if (!page.used[index]) {
+                page.used[index] = true;
+                page.usedSlots++;
+                return new Slot(page, index, (index % slotsPerRow) * tileSize, (index / slotsPerRow) * tileSize);
+            }
+        }
+        throw new IllegalStateException("Atlas page has no free slot");
+    }
+
+    private Page createPage() {
+        Identifier textureId = Identifier.of(LostCompassMapMod.MOD_ID, "tile_atlas_" + pageIdCounter++);
+        NativeImageBackedTexture texture = new NativeImageBackedTexture(
+                () -> textureId.toString(), pageSize, pageSize, false);
+        MinecraftClient.getInstance().getTextureManager().registerTexture(textureId, texture);
+        metrics.increment(MapMetrics.Counter.TEXTURES_REGISTERED);
+
+        Page page = new Page(textureId, texture, slotsPerRow * slotsPerRow);
+        pages.add(page);
+        return page;
+    }
+
+    /**
+     * Copies a decoded tile into its slot and uploads only that region of the page.
+     */
+    public void upload(Slot slot, NativeImage image) {
+        int width = Math.min(image.getWidth(), tileSize);
+        int height = Math.min(image.getHeight(), tileSize);
+        NativeImage pageImage = slot.page().getImage();
+
+        image.copyRect(pageImage, 0, 0, slot.u(), slot.v(), width, height, false, false);
+        RenderSystem.getDevice().createCommandEncoder().writeToTexture(
+                slot.page().texture.getGlTexture(), pageImage,
+                0, 0, slot.u(), slot.v(), width, height, slot.u(), slot.v());
+    }
+
+    public void free(Slot slot) {
+        Page page = slot.page();
+        if (!page.used[slot.index()]) {
+            return;
+        }
+        page.used[slot.index()] = false;
+        page.usedSlots--;
+
+        // Released once empty, so the tile cache's per-page budget matches what is allocated
+        if (page.usedSlots == 0) {
+            pages.remove(page);
+            destroy(page);
+        }
+    }
+
+    public void clear() {
+        for (Page page : pages) {
+            destroy(page);
+        }
+        pages.clear();
+    }
+
+    private void destroy(Page page) {
+        MinecraftClient.getInstance().getTextureManager().destroyTexture(page.textureId);
+        metrics.increment(MapMetrics.Counter.TEXTURES_DESTROYED);
+    }
+}
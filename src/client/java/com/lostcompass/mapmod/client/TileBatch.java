@@ -0,0 +1,127 @@
+package com.lostcompass.mapmod.client;
+
+import net.minecraft.client.gl.RenderPipelines;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.texture.NativeImage;
+
+import java.util.Arrays;
+
+/**
+ * Collects the tile quads of one frame and draws them grouped by atlas page, so consecutive
+ * quads share a texture and the GUI renderer merges them into a single draw per page.
+ */
+public class TileBatch {
+    private TileAtlas.Page[] pages = new TileAtlas.Page[64];
+    private int[] rects = new int[64 * 4];
+    private float[] regions = new float[64 * 4];
+    private int count = 0;
+
+    private int clipX0;
+    private int clipY0;
+    private int clipX1;
+    private int clipY1;
+
+    public void begin(int clipX0, int clipY0, int clipX1, int clipY1) {
+        this.clipX0 = clipX0;
+        this.clipY0 = clipY0;
+        this.clipX1 = clipX1;
+        this.clipY1 = clipY1;
+        count = 0;
+    }
+
+    /**
+     * Queues the square region ({@code u}, {@code v}, {@code regionSize}) of a tile, in tile pixels,
+     * to be drawn at ({@code x}, {@code y}) with side {@code size}, clipped to the batch's clip rect.
+     */
+    public void add(TileManager.CachedTile tile, float u, float v, float regionSize, int x, int y, int size) {
+        float texelsPerPixel = regionSize / size;
+        int x0 = Math.max(x, clipX0);
+        int y0 = Math.max(y, clipY0);
+        int x1 = Math.min(x + size, clipX1);
+        int y1 = Math.min(y + size, clipY1);
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+
+        ensureCapacity(count + 1);
+        pages[count] = tile.getPage();
+        int i = count * 4;
+        rects[i] = x0;
+        rects[i + 1] = y0;
+        rects[i + 2] = x1 - x0;
+        rects[i + 3] = y1 - y0;
+        regions[i] = tile.getU() + u + (x0 - x) * texelsPerPixel;
+        regions[i + 1] = tile.getV() + v + (y0 - y) * texelsPerPixel;
+        regions[i + 2] = (x1 - x0) * texelsPerPixel;
+        regions[i + 3] = (y1 - y0) * texelsPerPixel;
+        count++;
+    }
+
+    public void flush(DrawContext context, int pageSize) {
+        for (int first = 0; first < count; first++) {
+            TileAtlas.Page page = pages[first];
+            if (page == null) {
+                continue;
+            }
+            for (int j = first; j < count; j++) {
+                if (pages[j] != page) {
+                    continue;
+                }
+                int i = j * 4;
+                context.drawTexture(RenderPipelines.GUI_TEXTURED, page.getTextureId(),
+                        rects[i], rects[i + 1],
+                        regions[i], regions[i + 1],
+                        rects[i + 2], rects[i + 3],
+                        Math.max(1, Math.round(regions[i + 2])), Math.max(1, Math.round(regions[i + 3])),
+                        pageSize, pageSize);
+                pages[j] = null;
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * Rasterizes the queued quads into {@code target} on the CPU, straight from the atlas pages'
+     * own image copies, instead of drawing them. Quads at 1:1 scale are copied as blocks; scaled
+     * fallback quads are point-sampled like the GPU path.
+     */
+    public void compose(NativeImage target) {
+        for (int j = 0; j < count; j++) {
+            NativeImage source = pages[j].getImage();
+            int i = j * 4;
+            int x = rects[i];
+            int y = rects[i + 1];
+            int w = rects[i + 2];
+            int h = rects[i + 3];
+            float u = regions[i];
+            float v = regions[i + 1];
+            float scaleX = regions[i + 2] / w;
+            float scaleY = regions[i + 3] / h;
+
+            if (scaleX == 1 && scaleY == 1 && u == (int) u && v == (int) v) {
+                source.copyRect(target, (int) u, (int) v, x - (int) u, y - (int) v, w, h, false, false);
+            } else {
+                int maxU = source.getWidth() - 1;
+                int maxV = source.getHeight() - 1;
+                for (int py = 0; py < h; py++) {
+                    int sv = Math.min(maxV, (int) (v + (py + 0.5f) * scaleY));
+                    for (int px = 0; px < w; px++) {
+                        int su = Math.min(maxU, (int) (u + (px + 0.5f) * scaleX));
+                        target.setColorArgb(x + px, y + py, source.getColorArgb(su, sv));
+                    }
+                }
+            }
+            pages[j] = null;
+        }
+        count = 0;
+    }
+
+    private void ensureCapacity(int entries) {
+        if (entries > pages.length) {
+            int capacity = Math.max(entries, pages.length * 2);
+            pages = Arrays.copyOf(pages, capacity);
+            rects = Arrays.copyOf(rects, capacity * 4);
+            regions = Arrays.copyOf(regions, capacity * 4);
+        }
+    }
+}
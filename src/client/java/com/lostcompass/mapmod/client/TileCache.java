@@ -0,0 +1,341 @@
+package com.lostcompass.mapmod.client;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+// Evicts against CPU and GPU byte budgets with CLOCK. Reads take no lock and don't allocate;
+// values read off the render thread may be evicted before use, so check CachedTile.isValid
+public class TileCache<V extends TileCache.Sized> {
+    private static final int INITIAL_CAPACITY = 256;
+    // Marks a removed slot so probes continue past it
+    private static final Entry<?> TOMBSTONE = new Entry<>(0, null);
+
+    private final LongSupplier cpuBudget;
+    private final LongSupplier gpuBudget;
+    private final Consumer<V> evictionListener;
+
+    // Readers load the table once per lookup; writers publish a rebuilt one. Never more than
+    // half full (entries and tombstones), so every probe ends at an empty slot
+    private volatile AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    // Guarded by this
+    private int size = 0;
+    private int tombstones = 0;
+    private int hand = 0;
+    private long cpuBytes = 0;
+    private long gpuBytes = 0;
+    private long evictions = 0;
+    private final List<V> pendingEvictions = new ArrayList<>();
+    // Cached entries per shared page, so each page is charged once
+    private final Map<Object, int[]> pageEntries = new IdentityHashMap<>();
+
+    private volatile long version = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public interface Sized {
+        long cpuBytes();
+
+        long gpuBytes();
+
+        // Entries on the same page are charged for it once and evicted together; null if the entry
+        // owns its memory
+        default Object page() {
+            return null;
+        }
+    }
+
+    public record Usage(int entries, long cpuBytes, long cpuBudget, long gpuBytes, long gpuBudget,
+                        long hits, long misses, long evictions) {}
+
+    private static final class Entry<V> {
+        final long key;
+        final V value;
+        // Set by readers on a hit, cleared by the clock hand
+        volatile boolean referenced = true;
+
+        Entry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public TileCache(LongSupplier cpuBudget, LongSupplier gpuBudget, Consumer<V> evictionListener) {
+        this.cpuBudget = cpuBudget;
+        this.gpuBudget = gpuBudget;
+        this.evictionListener = evictionListener;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private Entry<V> find(long key) {
+        AtomicReferenceArray<Entry<V>> entries = table;
+        int mask = entries.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Entry<V> entry = entries.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != TOMBSTONE && entry.key == key) {
+                return entry;
+            }
+        }
+    }
+
+    public V get(long key) {
+        Entry<V> entry = find(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        // Only write when the bit actually changes, so hot entries don't bounce cache lines
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    // Doesn't count a lookup or keep the entry alive
+    public V peek(long key) {
+        Entry<V> entry = find(key);
+        return entry != null ? entry.value : null;
+    }
+
+    public boolean contains(long key) {
+        return find(key) != null;
+    }
+
+    public void put(long key, V value) {
+        synchronized (this) {
+            AtomicReferenceArray<Entry<V>> entries = table;
+            int mask = entries.length() - 1;
+            int free = -1;
+            int i = slot(key, mask);
+            for (; ; i = (i + 1) & mask) {
+                Entry<V> entry = entries.get(i);
+                if (entry == null) {
+                    break;
+                }
+                if (entry == TOMBSTONE) {
+                    if (free < 0) free = i;
+                } else if (entry.key == key) {
+                    release(entry.value);
+                    pendingEvictions.add(entry.value);
+                    free = i;
+                    size--;
+                    // The slot is overwritten below rather than emptied
+                    tombstones++;
+                    break;
+                }
+            }
+            if (free < 0) {
+                free = i;
+            } else {
+                tombstones--;
+            }
+            Entry<V> inserted = new Entry<>(key, value);
+            entries.set(free, inserted);
+            size++;
+            charge(value);
+            version++;
+
+            evictToBudget(inserted);
+            if ((size + tombstones) * 2 > entries.length()) {
+                rebuild();
+            }
+        }
+        notifyEvictions();
+    }
+
+    public V remove(long key) {
+        synchronized (this) {
+            AtomicReferenceArray<Entry<V>> entries = table;
+            int mask = entries.length() - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                Entry<V> entry = entries.get(i);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry != TOMBSTONE && entry.key == key) {
+                    clearSlot(entries, i, entry);
+                    version++;
+                    return entry.value;
+                }
+            }
+        }
+    }
+
+    // An entry's content was replaced in place
+    public void markChanged() {
+        synchronized (this) {
+            version++;
+        }
+    }
+
+    // Caller holds this
+    private void evictToBudget(Entry<V> inserted) {
+        long cpuLimit = cpuBudget.getAsLong();
+        long gpuLimit = gpuBudget.getAsLong();
+        AtomicReferenceArray<Entry<V>> entries = table;
+        int mask = entries.length() - 1;
+        Object insertedPage = inserted.value.page();
+        // Never evict the entry that was just inserted, or its page, even if that alone exceeds
+        // a budget. Each pass clears the reference bits it skips, so the hand finds a victim
+        // within two unless only the inserted page is left
+        int idle = 0;
+        while ((cpuBytes > cpuLimit || gpuBytes > gpuLimit) && size > 1 && idle <= entries.length() * 2) {
+            Entry<V> entry = entries.get(hand);
+            idle++;
+            if (entry != null && entry != TOMBSTONE && entry != inserted) {
+                Object page = entry.value.page();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (page == null) {
+                    evict(entries, hand, entry);
+                    idle = 0;
+                } else if (page != insertedPage) {
+                    // Evicting one tile of a page frees no memory; the least recently used
+                    // tile takes the rest of its page with it
+                    evictPage(entries, page);
+                    idle = 0;
+                }
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    // Caller holds this
+    private void evictPage(AtomicReferenceArray<Entry<V>> entries, Object page) {
+        for (int i = 0; i < entries.length(); i++) {
+            Entry<V> entry = entries.get(i);
+            if (entry != null && entry != TOMBSTONE && entry.value.page() == page) {
+                evict(entries, i, entry);
+            }
+        }
+    }
+
+    // Caller holds this
+    private void evict(AtomicReferenceArray<Entry<V>> entries, int index, Entry<V> entry) {
+        clearSlot(entries, index, entry);
+        pendingEvictions.add(entry.value);
+        evictions++;
+        version++;
+    }
+
+    // Caller holds this
+    @SuppressWarnings("unchecked")
+    private void clearSlot(AtomicReferenceArray<Entry<V>> entries, int index, Entry<V> entry) {
+        entries.set(index, (Entry<V>) TOMBSTONE);
+        tombstones++;
+        size--;
+        release(entry.value);
+    }
+
+    // Caller holds this. Readers still probing the old table finish there; its entries stay valid
+    private void rebuild() {
+        AtomicReferenceArray<Entry<V>> old = table;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<Entry<V>> rebuilt = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            Entry<V> entry = old.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                int j = slot(entry.key, mask);
+                while (rebuilt.get(j) != null) {
+                    j = (j + 1) & mask;
+                }
+                rebuilt.set(j, entry);
+            }
+        }
+        tombstones = 0;
+        hand = 0;
+        table = rebuilt;
+    }
+
+    // Caller holds this
+    private void charge(V value) {
+        Object page = value.page();
+        if (page != null) {
+            int[] count = pageEntries.get(page);
+            if (count != null) {
+                count[0]++;
+                return;
+            }
+            pageEntries.put(page, new int[] {1});
+        }
+        cpuBytes += value.cpuBytes();
+        gpuBytes += value.gpuBytes();
+    }
+
+    // Caller holds this
+    private void release(V value) {
+        Object page = value.page();
+        if (page != null) {
+            int[] count = pageEntries.get(page);
+            if (--count[0] > 0) {
+                return;
+            }
+            pageEntries.remove(page);
+        }
+        cpuBytes -= value.cpuBytes();
+        gpuBytes -= value.gpuBytes();
+    }
+
+    // Outside the lock, so the cleanup never holds up other writers
+    private void notifyEvictions() {
+        while (true) {
+            V evicted;
+            synchronized (this) {
+                if (pendingEvictions.isEmpty()) {
+                    return;
+                }
+                evicted = pendingEvictions.removeLast();
+            }
+            evictionListener.accept(evicted);
+        }
+    }
+
+    // Changes on every add, replace, in-place change or removal
+    public long getVersion() {
+        return version;
+    }
+
+    public synchronized Usage usage() {
+        return new Usage(size, cpuBytes, cpuBudget.getAsLong(), gpuBytes, gpuBudget.getAsLong(),
+                hits.sum(), misses.sum(), evictions);
+    }
+
+    public void clear() {
+        synchronized (this) {
+            AtomicReferenceArray<Entry<V>> old = table;
+            for (int i = 0; i < old.length(); i++) {
+                Entry<V> entry = old.get(i);
+                if (entry != null && entry != TOMBSTONE) {
+                    pendingEvictions.add(entry.value);
+                }
+            }
+            table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+            size = 0;
+            tombstones = 0;
+            hand = 0;
+            version++;
+            cpuBytes = 0;
+            gpuBytes = 0;
+            pageEntries.clear();
+        }
+        notifyEvictions();
+    }
+}
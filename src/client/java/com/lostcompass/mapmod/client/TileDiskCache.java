@@ -0,0 +1,397 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.lostcompass.mapmod.config.ModConfig;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Tile PNGs and their validators on disk, packed into region files, so stale tiles can be
+// revalidated with a conditional GET
+public class TileDiskCache implements AutoCloseable {
+    private static final int MAX_OPEN_REGIONS = 64;
+    private static final Pattern REGION_NAME = Pattern.compile("r_(-?\\d+)_(-?\\d+)\\.lcmr");
+    // One file per tile, as written before tiles were packed into regions
+    private static final Pattern LEGACY_NAME = Pattern.compile("(-?\\d+)_(-?\\d+)\\.png");
+
+    private final Path root;
+    // Guarded by itself, as are retiring, closed and every OpenRegion's users count
+    private final Map<RegionKey, OpenRegion> openRegions;
+    // Regions evicted from openRegions while a caller was still using them; closed by the last
+    // user, or taken back if they are asked for again first, so a file never has two writers
+    private final Map<RegionKey, OpenRegion> retiring = new HashMap<>();
+    private boolean closed = false;
+
+    public record Entry(byte[] data, String etag, String lastModified, long fetchedAt) {
+        public boolean isFresh(long maxAgeMillis) {
+            return System.currentTimeMillis() - fetchedAt < maxAgeMillis;
+        }
+
+        public Entry touched() {
+            return new Entry(data, etag, lastModified, System.currentTimeMillis());
+        }
+    }
+
+    private record RegionKey(int zoom, int regionX, int regionY) {}
+
+    private static final class OpenRegion {
+        final RegionKey key;
+        // Completed by the caller that opens the file, outside the openRegions lock, so only
+        // callers of this region wait for it (opening may compact a large file). Null if there
+        // was no file to open
+        final CompletableFuture<TileRegionFile> file = new CompletableFuture<>();
+        int users = 0;
+
+        OpenRegion(RegionKey key) {
+            this.key = key;
+        }
+    }
+
+    private interface RegionTask<T> {
+        T run(TileRegionFile region) throws IOException;
+    }
+
+    public TileDiskCache(ModConfig config) {
+        this(FabricLoader.getInstance().getGameDir()
+                .resolve(LostCompassMapMod.MOD_ID)
+                .resolve("tiles")
+                .resolve(hostDirectory(config.getMapServerUrl())));
+    }
+
+    public TileDiskCache(Path root) {
+        this.root = root;
+        this.openRegions = new LinkedHashMap<>(MAX_OPEN_REGIONS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RegionKey, OpenRegion> eldest) {
+                if (size() <= MAX_OPEN_REGIONS) {
+                    return false;
+                }
+                OpenRegion region = eldest.getValue();
+                if (region.users == 0) {
+                    closeQuietly(region);
+                } else {
+                    retiring.put(region.key, region);
+                }
+                return true;
+            }
+        };
+    }
+
+    private static String hostDirectory(String serverUrl) {
+        // One directory per map host so switching servers never mixes tiles
+        String host = URI.create(serverUrl).getHost();
+        return host != null ? host.replaceAll("[^A-Za-z0-9._-]", "_") : "default";
+    }
+
+    private Path regionPath(RegionKey region) {
+        return root.resolve(String.valueOf(region.zoom()))
+                .resolve("r_" + region.regionX() + "_" + region.regionY() + ".lcmr");
+    }
+
+    // Keeps the region open until the task returns. Only writes create a missing region file,
+    // so browsing doesn't leave empty regions behind
+    private <T> T withRegion(RegionKey regionKey, boolean create, T absent, RegionTask<T> task) throws IOException {
+        while (true) {
+            OpenRegion region;
+            boolean opening = false;
+            synchronized (openRegions) {
+                if (closed) {
+                    throw new IOException("Disk cache is closed");
+                }
+                region = openRegions.get(regionKey);
+                if (region == null) {
+                    region = retiring.remove(regionKey);
+                    if (region == null) {
+                        region = new OpenRegion(regionKey);
+                        opening = true;
+                    }
+                    openRegions.put(regionKey, region);
+                }
+                region.users++;
+            }
+            try {
+                TileRegionFile file = opening ? open(region, create) : await(region);
+                if (file != null) {
+                    return task.run(file);
+                }
+                if (!create) {
+                    return absent;
+                }
+                // A lookup found no file while this caller is about to write one: open it again
+            } finally {
+                release(region);
+            }
+        }
+    }
+
+    private TileRegionFile open(OpenRegion region, boolean create) throws IOException {
+        RegionKey key = region.key;
+        TileRegionFile file;
+        try {
+            file = TileRegionFile.open(regionPath(key), key.zoom(), key.regionX(), key.regionY(), create);
+        } catch (IOException | RuntimeException e) {
+            forget(region);
+            region.file.completeExceptionally(e);
+            throw e;
+        }
+        if (file == null) {
+            forget(region);
+        }
+        region.file.complete(file);
+        return file;
+    }
+
+    private static TileRegionFile await(OpenRegion region) throws IOException {
+        try {
+            return region.file.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to open region " + region.key, e.getCause());
+        }
+    }
+
+    // The next caller of a region that couldn't be opened starts over
+    private void forget(OpenRegion region) {
+        synchronized (openRegions) {
+            openRegions.remove(region.key, region);
+            retiring.remove(region.key, region);
+        }
+    }
+
+    private void release(OpenRegion region) {
+        synchronized (openRegions) {
+            if (--region.users == 0 && (closed || retiring.remove(region.key, region))) {
+                closeQuietly(region);
+            }
+        }
+    }
+
+    private <T> T withRegion(TileManager.TileKey key, boolean create, T absent, RegionTask<T> task) throws IOException {
+        return withRegion(new RegionKey(key.zoom(), TileRegionFile.regionCoord(key.x()),
+                TileRegionFile.regionCoord(key.y())), create, absent, task);
+    }
+
+    public Entry get(TileManager.TileKey key) {
+        try {
+            return withRegion(key, false, null, region -> region.read(TileRegionFile.localCoord(key.x()),
+                    TileRegionFile.localCoord(key.y())));
+        } catch (IOException e) {
+            LostCompassMapMod.LOGGER.debug("Failed to read disk tile {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    // -1 if there is no stored copy
+    public long getFetchedAt(TileManager.TileKey key) {
+        try {
+            return withRegion(key, false, -1L, region -> region.readFetchedAt(TileRegionFile.localCoord(key.x()),
+                    TileRegionFile.localCoord(key.y())));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public Entry put(TileManager.TileKey key, byte[] data, String etag, String lastModified) {
+        Entry entry = new Entry(data, etag, lastModified, System.currentTimeMillis());
+        put(key, entry);
+        return entry;
+    }
+
+    private void put(TileManager.TileKey key, Entry entry) {
+        try {
+            withRegion(key, true, null, region -> {
+                region.write(TileRegionFile.localCoord(key.x()), TileRegionFile.localCoord(key.y()), entry);
+                return null;
+            });
+        } catch (IOException e) {
+            // The tile was downloaded but will have to be downloaded again
+            LostCompassMapMod.LOGGER.warn("Failed to store tile {} on disk: {}", key, e.getMessage());
+        }
+    }
+
+    public Entry touch(TileManager.TileKey key, Entry entry) {
+        Entry touched = entry.touched();
+        try {
+            withRegion(key, false, null, region -> {
+                region.touch(TileRegionFile.localCoord(key.x()), TileRegionFile.localCoord(key.y()), touched.fetchedAt());
+                return null;
+            });
+        } catch (IOException e) {
+            LostCompassMapMod.LOGGER.debug("Failed to refresh disk tile {}: {}", key, e.getMessage());
+        }
+        return touched;
+    }
+
+    public void delete(TileManager.TileKey key) {
+        try {
+            withRegion(key, false, null, region -> {
+                region.remove(TileRegionFile.localCoord(key.x()), TileRegionFile.localCoord(key.y()));
+                return null;
+            });
+        } catch (IOException ignored) {}
+    }
+
+    // Skipped if the local copy is at least as recent
+    public boolean importEntry(TileManager.TileKey key, Entry entry) throws IOException {
+        int localX = TileRegionFile.localCoord(key.x());
+        int localY = TileRegionFile.localCoord(key.y());
+        return withRegion(key, true, false, region -> {
+            if (region.readFetchedAt(localX, localY) >= entry.fetchedAt()) {
+                return false;
+            }
+            region.write(localX, localY, entry);
+            return true;
+        });
+    }
+
+    public interface RegionVisitor {
+        void visit(TileRegionFile region) throws IOException;
+    }
+
+    public void forEachRegion(RegionVisitor visitor) throws IOException {
+        List<RegionKey> regionKeys = new ArrayList<>();
+        forEachRegionKey(regionKeys::add);
+        for (RegionKey regionKey : regionKeys) {
+            withRegion(regionKey, false, null, region -> {
+                visitor.visit(region);
+                return null;
+            });
+        }
+    }
+
+    private void forEachRegionKey(Consumer<RegionKey> consumer) throws IOException {
+        forEachFile((zoom, file) -> {
+            Matcher matcher = REGION_NAME.matcher(file.getFileName().toString());
+            if (matcher.matches()) {
+                consumer.accept(new RegionKey(zoom,
+                        Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+            }
+        });
+    }
+
+    private interface FileVisitor {
+        void visit(int zoom, Path file) throws IOException;
+    }
+
+    private void forEachFile(FileVisitor visitor) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        try (Stream<Path> zoomDirs = Files.list(root)) {
+            for (Path zoomDir : (Iterable<Path>) zoomDirs::iterator) {
+                int zoom;
+                try {
+                    zoom = Integer.parseInt(zoomDir.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                List<Path> files;
+                try (Stream<Path> listing = Files.list(zoomDir)) {
+                    files = listing.toList();
+                }
+                for (Path file : files) {
+                    visitor.visit(zoom, file);
+                }
+            }
+        }
+    }
+
+    // Tiles left from the one-file-per-tile layout. Slow on a large cache
+    public void migrateLegacyTiles() {
+        int[] imported = {0};
+        try {
+            forEachFile((zoom, file) -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".png.tmp") || name.endsWith(".meta.tmp")) {
+                    Files.deleteIfExists(file);
+                    return;
+                }
+                Matcher matcher = LEGACY_NAME.matcher(name);
+                if (!matcher.matches()) {
+                    return;
+                }
+                TileManager.TileKey key = new TileManager.TileKey(zoom,
+                        Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                Path meta = file.resolveSibling(key.x() + "_" + key.y() + ".meta");
+                Entry entry = readLegacy(file, meta);
+                // Never overwrites a copy downloaded since
+                if (entry != null && importEntry(key, entry)) {
+                    imported[0]++;
+                }
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(meta);
+            });
+        } catch (IOException | RuntimeException e) {
+            LostCompassMapMod.LOGGER.warn("Failed to migrate old disk tiles: {}", e.getMessage());
+        }
+        if (imported[0] > 0) {
+            LostCompassMapMod.LOGGER.info("Moved {} disk tiles into region files", imported[0]);
+        }
+    }
+
+    private static Entry readLegacy(Path data, Path meta) {
+        // Unreadable or half-written tiles are simply dropped, as the old cache did
+        if (!Files.isRegularFile(meta)) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(meta)) {
+                properties.load(in);
+            }
+            long fetchedAt = Long.parseLong(properties.getProperty("fetchedAt", "0"));
+            return new Entry(Files.readAllBytes(data),
+                    properties.getProperty("etag"),
+                    properties.getProperty("lastModified"),
+                    fetchedAt);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Only called once no caller uses the region, so it is no longer being opened
+    private static void closeQuietly(OpenRegion region) {
+        TileRegionFile file = region.file.isCompletedExceptionally() ? null : region.file.getNow(null);
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (openRegions) {
+            closed = true;
+            // Regions still in use are closed by their last user
+            for (OpenRegion region : openRegions.values()) {
+                if (region.users == 0) {
+                    closeQuietly(region);
+                }
+            }
+            for (OpenRegion region : retiring.values()) {
+                if (region.users == 0) {
+                    closeQuietly(region);
+                }
+            }
+            openRegions.clear();
+            retiring.clear();
+        }
+    }
+}
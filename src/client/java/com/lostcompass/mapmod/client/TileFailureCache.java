@@ -0,0 +1,91 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Remembers tiles that recently failed so they are not re-requested every frame. Missing
+ * tiles (404) are held back for a long fixed period; server errors and timeouts back off
+ * exponentially per tile.
+ * <p>
+ * Entries are keyed by packed tile key ({@link TileMath#pack}) so the per-frame
+ * {@link #isBlocked(long)} check doesn't allocate.
+ */
+public class TileFailureCache {
+    private static final int PRUNE_THRESHOLD = 4096;
+    private static final long BASE_BACKOFF_MILLIS = 2_000;
+
+    private final ModConfig config;
+    // Guarded by itself
+    private final Long2ObjectOpenHashMap<Failure> failures = new Long2ObjectOpenHashMap<>();
+
+    private record Failure(long retryAt, int attempts, boolean notFound) {}
+
+    public TileFailureCache(ModConfig config) {
+        this.config = config;
+    }
+
+    public boolean isBlocked(long key) {
+        Failure failure = get(key);
+        return failure != null && System.currentTimeMillis() < failure.retryAt();
+    }
+
+    /**
+     * Whether the server recently said this tile doesn't exist (as opposed to failing to serve it).
+     */
+    public boolean isKnownMissing(TileManager.TileKey key) {
+        Failure failure = get(key.packed());
+        return failure != null && failure.notFound() && System.currentTimeMillis() < failure.retryAt();
+    }
+
+    public void recordNotFound(TileManager.TileKey key) {
+        record(key, new Failure(System.currentTimeMillis() + config.getNotFoundRetryMillis(), 0, true));
+    }
+
+    public void recordTransient(TileManager.TileKey key) {
+        Failure previous = get(key.packed());
+        int attempts = previous != null ? previous.attempts() + 1 : 1;
+        long backoff = Math.min(config.getFetchBackoffMaxMillis(), BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+        // Jitter keeps a screen full of failed tiles from retrying in lockstep
+        backoff += ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+        record(key, new Failure(System.currentTimeMillis() + backoff, attempts, false));
+    }
+
+    /**
+     * Holds a tile back until the given time without counting it as a failure of its own.
+     */
+    public void recordBlocked(TileManager.TileKey key, long retryAt) {
+        Failure previous = get(key.packed());
+        record(key, new Failure(retryAt, previous != null ? previous.attempts() : 0, false));
+    }
+
+    public void recordSuccess(TileManager.TileKey key) {
+        synchronized (failures) {
+            failures.remove(key.packed());
+        }
+    }
+
+    private Failure get(long key) {
+        synchronized (failures) {
+            return failures.get(key);
+        }
+    }
+
+    private void record(TileManager.TileKey key, Failure failure) {
+        synchronized (failures) {
+            failures.put(key.packed(), failure);
+            if (failures.size() > PRUNE_THRESHOLD) {
+                long expiredBefore = System.currentTimeMillis() - config.getFetchBackoffMaxMillis();
+                failures.values().removeIf(f -> f.retryAt() < expiredBefore);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (failures) {
+            return failures.size();
+        }
+    }
+}
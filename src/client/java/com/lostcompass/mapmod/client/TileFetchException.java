@@ -0,0 +1,19 @@
+package com.lostcompass.mapmod.client;
+
+import java.io.IOException;
+
+/**
+ * A tile fetch that failed for a known, already-recorded reason (HTTP status or open circuit).
+ */
+public class TileFetchException extends IOException {
+    private final int statusCode;
+
+    public TileFetchException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,348 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.LostCompassMapMod;
+import com.lostcompass.mapmod.config.ModConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongPredicate;
+
+// Ranks tile fetches by priority and distance from the view focus. Each key is fetched at
+// most once at a time; requests outside the retain area are cancelled
+public class TileFetchScheduler {
+    public enum Priority {
+        VISIBLE,
+        PREFETCH,
+        SPECULATIVE,
+        REFRESH
+    }
+
+    public interface Fetcher {
+        // knownHash is the loaded copy's hash for a refresh, otherwise NO_CONTENT_HASH
+        void fetch(TileManager.TileKey key, long knownHash) throws Exception;
+    }
+
+    private final ModConfig config;
+    private final ExecutorService executor;
+    private final int maxConcurrent;
+    private final Fetcher fetcher;
+    // Queued and in-flight requests by packed key, guarded by this
+    private final Long2ObjectOpenHashMap<Request> requests = new Long2ObjectOpenHashMap<>();
+    private final PriorityQueue<Request> queue = new PriorityQueue<>(Comparator.comparingDouble(r -> r.rank));
+    // Started requests whose workers haven't finished, guarded by this
+    private final List<Request> running = new ArrayList<>();
+    // Scratch for re-ranking the queue in place, guarded by this
+    private Request[] queued = new Request[64];
+    private int inFlight = 0;
+
+    private double focusX;
+    private double focusZ;
+    private int focusZoom;
+    private int focusRadius = Integer.MAX_VALUE;
+    private int focusTileX;
+    private int focusTileY;
+
+    private static final class Request {
+        final TileManager.TileKey key;
+        final long packed;
+        Priority priority;
+        long knownHash = TileManager.NO_CONTENT_HASH;
+        double rank;
+        boolean started = false;
+        volatile boolean cancelled = false;
+        Thread worker;
+        // Asked for again after this request was cancelled in flight; queued once this request's
+        // worker has finished, so a key is never fetched twice at once. Guarded by the scheduler
+        Request successor;
+
+        Request(TileManager.TileKey key, Priority priority) {
+            this.key = key;
+            this.packed = key.packed();
+            this.priority = priority;
+        }
+    }
+
+    public TileFetchScheduler(ModConfig config, ExecutorService executor, int maxConcurrent, Fetcher fetcher) {
+        this.config = config;
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.fetcher = fetcher;
+    }
+
+    public int getQueuedCount() {
+        synchronized (this) {
+            return queue.size();
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (this) {
+            return inFlight;
+        }
+    }
+
+    // A request cancelled in flight is replaced once its worker finishes. Only allocates if a
+    // request is queued, so views can re-request missing tiles every frame
+    public void submit(int zoom, int x, int y, Priority priority) {
+        long packed = TileMath.pack(zoom, x, y);
+        synchronized (this) {
+            Request existing = requests.get(packed);
+            if (existing != null && existing.cancelled) {
+                Request successor = existing.successor;
+                if (successor == null) {
+                    existing.successor = new Request(new TileManager.TileKey(zoom, x, y), priority);
+                } else if (priority.ordinal() < successor.priority.ordinal()) {
+                    successor.priority = priority;
+                    successor.knownHash = TileManager.NO_CONTENT_HASH;
+                }
+                return;
+            }
+            if (existing != null) {
+                if (!existing.started && priority.ordinal() < existing.priority.ordinal()) {
+                    queue.remove(existing);
+                    existing.priority = priority;
+                    // The tile is wanted again, not just revalidated
+                    existing.knownHash = TileManager.NO_CONTENT_HASH;
+                    existing.rank = rank(existing);
+                    queue.add(existing);
+                }
+                return;
+            }
+
+            Request request = new Request(new TileManager.TileKey(zoom, x, y), priority);
+            requests.put(packed, request);
+            request.rank = rank(request);
+            queue.add(request);
+        }
+        dispatch();
+    }
+
+    public boolean submitRefresh(int zoom, int x, int y, long knownHash) {
+        long packed = TileMath.pack(zoom, x, y);
+        synchronized (this) {
+            Request existing = requests.get(packed);
+            if (existing != null && (!existing.cancelled || existing.successor != null)) {
+                return false;
+            }
+            Request request = new Request(new TileManager.TileKey(zoom, x, y), Priority.REFRESH);
+            request.knownHash = knownHash;
+            if (existing != null) {
+                // Still being cancelled in flight
+                existing.successor = request;
+                return true;
+            }
+            requests.put(packed, request);
+            request.rank = rank(request);
+            queue.add(request);
+        }
+        dispatch();
+        return true;
+    }
+
+    // Called every frame; only re-ranks and cancels when the focus tile or zoom changes
+    public void setFocus(double worldX, double worldZ, int zoom, int retainRadius) {
+        int blocksPerTile = config.getBlocksPerTile(zoom);
+        int tileX = TileMath.tileCoord(worldX, blocksPerTile);
+        int tileY = TileMath.tileCoord(worldZ, blocksPerTile);
+
+        synchronized (this) {
+            boolean sameTile = zoom == focusZoom && tileX == focusTileX && tileY == focusTileY;
+            focusX = worldX;
+            focusZ = worldZ;
+            focusZoom = zoom;
+            if (sameTile && retainRadius == focusRadius) {
+                return;
+            }
+            focusTileX = tileX;
+            focusTileY = tileY;
+            focusRadius = retainRadius;
+
+            // Rebuild the queue from the scratch array rather than copying it, so crossing a
+            // tile boundary doesn't allocate
+            int count = drainQueue();
+            for (int i = 0; i < count; i++) {
+                Request request = queued[i];
+                queued[i] = null;
+                if (isWanted(request.key)) {
+                    request.rank = rank(request);
+                    queue.add(request);
+                } else {
+                    request.cancelled = true;
+                    removeRequest(request);
+                }
+            }
+            for (int i = running.size() - 1; i >= 0; i--) {
+                Request request = running.get(i);
+                if (!isWanted(request.key)) {
+                    cancel(request);
+                }
+            }
+        }
+    }
+
+    // Caller holds this
+    private int drainQueue() {
+        int count = queue.size();
+        queued = queue.toArray(queued);
+        queue.clear();
+        return count;
+    }
+
+    private boolean isWanted(TileManager.TileKey key) {
+        if (Math.abs(key.zoom() - focusZoom) > 1) {
+            return false;
+        }
+        double focusBlocks = config.getBlocksPerTile(focusZoom);
+        double keyBlocks = config.getBlocksPerTile(key.zoom());
+        double dx = Math.abs((key.x() + 0.5) * keyBlocks - focusX) / focusBlocks;
+        double dz = Math.abs((key.y() + 0.5) * keyBlocks - focusZ) / focusBlocks;
+        return Math.max(dx, dz) <= focusRadius + 0.5;
+    }
+
+    private double rank(Request request) {
+        TileManager.TileKey key = request.key;
+        double focusBlocks = config.getBlocksPerTile(focusZoom);
+        double keyBlocks = config.getBlocksPerTile(key.zoom());
+        double dx = ((key.x() + 0.5) * keyBlocks - focusX) / focusBlocks;
+        double dz = ((key.y() + 0.5) * keyBlocks - focusZ) / focusBlocks;
+        double distance = Math.sqrt(dx * dx + dz * dz) + Math.abs(key.zoom() - focusZoom) * 4;
+        // Classes never overlap (visible, prefetch, speculative, refresh); nearest first within each
+        return request.priority.ordinal() * 1_000_000.0 + distance;
+    }
+
+    // Fetches already in flight are left to finish
+    public void cancelQueued(long packed) {
+        synchronized (this) {
+            Request request = requests.get(packed);
+            if (request == null) {
+                return;
+            }
+            request.successor = null;
+            if (!request.started && !request.cancelled) {
+                request.cancelled = true;
+                queue.remove(request);
+                removeRequest(request);
+            }
+        }
+    }
+
+    private void cancel(Request request) {
+        synchronized (this) {
+            request.successor = null;
+            if (request.cancelled) {
+                return;
+            }
+            request.cancelled = true;
+            if (!request.started) {
+                queue.remove(request);
+                removeRequest(request);
+                return;
+            }
+        }
+        synchronized (request) {
+            if (request.worker != null) {
+                request.worker.interrupt();
+            }
+        }
+    }
+
+    // Speculative fetches in flight are left to finish; their tiles are cached either way
+    public void dropSpeculative(LongPredicate stillLikely) {
+        synchronized (this) {
+            int count = drainQueue();
+            for (int i = 0; i < count; i++) {
+                Request request = queued[i];
+                queued[i] = null;
+                if (request.priority != Priority.SPECULATIVE || stillLikely.test(request.packed)) {
+                    queue.add(request);
+                } else {
+                    request.cancelled = true;
+                    removeRequest(request);
+                }
+            }
+        }
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            while (inFlight < maxConcurrent && !queue.isEmpty()) {
+                Request request = queue.poll();
+                request.started = true;
+                inFlight++;
+                running.add(request);
+                try {
+                    executor.execute(() -> run(request));
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    inFlight--;
+                    running.remove(request);
+                    removeRequest(request);
+                }
+            }
+        }
+    }
+
+    // Caller holds this
+    private void removeRequest(Request request) {
+        if (requests.get(request.packed) == request) {
+            requests.remove(request.packed);
+        }
+    }
+
+    private void run(Request request) {
+        try {
+            synchronized (request) {
+                request.worker = Thread.currentThread();
+            }
+            if (!request.cancelled) {
+                fetcher.fetch(request.key, request.knownHash);
+            }
+        } catch (InterruptedException e) {
+            LostCompassMapMod.LOGGER.debug("Cancelled fetch of tile {}", request.key);
+        } catch (IOException e) {
+            // Network failures are already accounted for by the failure cache and circuit breaker
+            LostCompassMapMod.LOGGER.debug("Failed to fetch tile {}: {}", request.key, e.getMessage());
+        } catch (Exception e) {
+            if (request.cancelled) {
+                LostCompassMapMod.LOGGER.debug("Cancelled fetch of tile {}", request.key);
+            } else {
+                LostCompassMapMod.LOGGER.warn("Failed to fetch tile {}: {}", request.key, e.getMessage());
+            }
+        } finally {
+            synchronized (request) {
+                request.worker = null;
+                // Don't leak a cancellation interrupt into the next task on this worker
+                Thread.interrupted();
+            }
+            synchronized (this) {
+                removeRequest(request);
+                running.remove(request);
+                inFlight--;
+                Request successor = request.successor;
+                if (successor != null) {
+                    request.successor = null;
+                    requests.put(successor.packed, successor);
+                    successor.rank = rank(successor);
+                    queue.add(successor);
+                }
+            }
+            dispatch();
+        }
+    }
+
+    public void shutdown() {
+        List<Request> all;
+        synchronized (this) {
+            all = new ArrayList<>(requests.values());
+        }
+        for (Request request : all) {
+            cancel(request);
+        }
+    }
+}
@@ -2,204 +2,634 @@ package com.lostcompass.mapmod.client;
 
 import com.lostcompass.mapmod.LostCompassMapMod;
 import com.lostcompass.mapmod.config.ModConfig;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.texture.NativeImage;
-import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.util.Identifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32C;
 
 public class TileManager {
+    private static final int MAX_FALLBACK_LEVELS = 3;
+    private static final long REFRESH_SCAN_NANOS = 1_000_000_000L;
+    private static final int MAX_REFRESHES_PER_SCAN = 4;
+    private static final long DEFAULT_TILE_LATENCY_MICROS = 500_000;
+    private static final long LATENCY_REFRESH_NANOS = 2_000_000_000L;
+
+    // Tiles built from several server tiles below the server's minimum zoom; never refreshed
+    public static final long NO_CONTENT_HASH = 0;
+
     private final ModConfig config;
-    private final HttpClient httpClient;
-    private final ExecutorService executor;
-    private final Map<TileKey, CachedTile> tileCache;
-    private final Map<TileKey, CompletableFuture<CachedTile>> pendingFetches;
-    private int textureIdCounter = 0;
+    private final MapHttpClient http;
+    private final TileDiskCache diskCache;
+    private final TileCache<CachedTile> tileCache;
+    private final TileFetchScheduler scheduler;
+    private final TileFailureCache failures;
+    private final CircuitBreaker circuitBreaker;
+    private final TileAtlas atlas;
+    private final TileUploadQueue uploadQueue;
+    private final MapMetrics metrics;
+    // Render-thread scratch for drawFallback
+    private final CachedTile[] fallbackChildren = new CachedTile[4];
+    // Number of view trackers holding each tile, by packed key. Render thread only
+    private final Long2IntOpenHashMap trackedTiles = new Long2IntOpenHashMap();
+
+    // Last view focus, used to pick which loaded tiles to refresh. Render thread only
+    private boolean hasViewFocus = false;
+    private double viewFocusX;
+    private double viewFocusZ;
+    private int viewFocusZoom;
+    private long refreshScanAt = 0;
 
-    public TileManager(ModConfig config) {
+    // Recent tile latency, measured from metrics windows. Render thread only
+    private MapMetrics.Snapshot latencySnapshot;
+    private long latencySnapshotAt;
+    private long tileLatencyMicros = DEFAULT_TILE_LATENCY_MICROS;
+
+    public TileManager(ModConfig config, MapHttpClient http, MapMetrics metrics) {
         this.config = config;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-        this.executor = Executors.newFixedThreadPool(4);
-        this.pendingFetches = new ConcurrentHashMap<>();
-
-        int cacheSize = config.getTileCacheSize();
-        this.tileCache = new LinkedHashMap<>(cacheSize, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<TileKey, CachedTile> eldest) {
-                if (size() > cacheSize) {
-                    eldest.getValue().destroy();
-                    return true;
-                }
-                return false;
-            }
-        };
+        this.http = http;
+        this.metrics = metrics;
+        this.diskCache = config.isDiskCacheEnabled() ? new TileDiskCache(config) : null;
+        if (diskCache != null) {
+            http.getExecutor().execute(diskCache::migrateLegacyTiles);
+        }
+        // Every fetch gets its own virtual thread; the scheduler decides how many run at once
+        this.scheduler = new TileFetchScheduler(config, http.getExecutor(),
+                http.getMaxConcurrentRequests(), this::fetchTile);
+        this.failures = new TileFailureCache(config);
+        this.circuitBreaker = http.getCircuitBreaker();
+        this.atlas = new TileAtlas(config.getAtlasPageSize(), config.getTileSize(), metrics);
+        this.uploadQueue = new TileUploadQueue(config.getUploadQueueCapacity());
+
+        this.tileCache = new TileCache<>(config::getTileCacheCpuBudgetBytes,
+                config::getTileCacheGpuBudgetBytes, CachedTile::destroy);
     }
 
-    public record TileKey(int zoom, int x, int y) {}
+    public record TileKey(int zoom, int x, int y) {
+        public long packed() {
+            return TileMath.pack(zoom, x, y);
+        }
+    }
 
-    public static class CachedTile {
-        private final Identifier textureId;
-        private final NativeImageBackedTexture texture;
+    public static class CachedTile implements TileCache.Sized {
+        private final TileAtlas atlas;
+        private final TileAtlas.Slot slot;
+        private final int width;
+        private final int height;
+        private long contentHash;
+        private long fetchedAt;
         private boolean destroyed = false;
 
-        public CachedTile(Identifier textureId, NativeImageBackedTexture texture) {
-            this.textureId = textureId;
-            this.texture = texture;
+        public CachedTile(TileAtlas atlas, TileAtlas.Slot slot, int width, int height, long contentHash) {
+            this.atlas = atlas;
+            this.slot = slot;
+            this.width = width;
+            this.height = height;
+            this.contentHash = contentHash;
+            this.fetchedAt = System.currentTimeMillis();
+        }
+
+        // Atlas memory comes in whole pages, each a texture plus the native RGBA copy uploads
+        // are written through
+        @Override
+        public long cpuBytes() {
+            return atlas.getPageBytes();
+        }
+
+        @Override
+        public long gpuBytes() {
+            return atlas.getPageBytes();
+        }
+
+        @Override
+        public Object page() {
+            return slot.page();
+        }
+
+        public TileAtlas.Page getPage() {
+            return slot.page();
         }
 
         public Identifier getTextureId() {
-            return textureId;
+            return slot.page().getTextureId();
+        }
+
+        public int getU() {
+            return slot.u();
+        }
+
+        public int getV() {
+            return slot.v();
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        // Last fetched or confirmed unchanged
+        public long getFetchedAt() {
+            return fetchedAt;
         }
 
         public boolean isValid() {
-            return !destroyed && texture != null;
+            return !destroyed;
         }
 
         public void destroy() {
             if (!destroyed) {
                 destroyed = true;
-                MinecraftClient.getInstance().execute(() -> {
-                    MinecraftClient.getInstance().getTextureManager().destroyTexture(textureId);
-                });
+                MinecraftClient.getInstance().execute(() -> atlas.free(slot));
             }
         }
     }
 
-    public TileKey worldToTile(double worldX, double worldZ, int zoom) {
-        int blocksPerTile = config.getBlocksPerTile(zoom);
-        int tileX = (int) Math.floor(worldX / blocksPerTile);
-        int tileY = (int) Math.floor(worldZ / blocksPerTile);
-        return new TileKey(zoom, tileX, tileY);
+    // Render thread only; does not allocate
+    public CachedTile getTile(int zoom, int tileX, int tileY) {
+        CachedTile cached = tileCache.get(TileMath.pack(zoom, tileX, tileY));
+        if (cached != null && cached.isValid()) {
+            return cached;
+        }
+        return null;
     }
 
-    public double[] tileToWorld(int tileX, int tileY, int zoom) {
-        int blocksPerTile = config.getBlocksPerTile(zoom);
-        return new double[]{tileX * blocksPerTile, tileY * blocksPerTile};
-    }
+    // All four children if loaded, else the nearest loaded ancestor, else whichever children
+    // exist. One source per tile, so the batch never orders overlapping quads
+    public boolean drawFallback(TileBatch batch, int zoom, int tileX, int tileY, int x, int y, int size) {
+        int tileSize = config.getTileSize();
+        int half = size / 2;
 
-    public CachedTile getTile(TileKey key) {
-        synchronized (tileCache) {
-            CachedTile cached = tileCache.get(key);
-            if (cached != null && cached.isValid()) {
-                return cached;
+        CachedTile[] children = fallbackChildren;
+        int loadedChildren = 0;
+        if (zoom < config.getServerMaxZoom()) {
+            for (int i = 0; i < 4; i++) {
+                children[i] = getTile(zoom + 1, tileX * 2 + (i & 1), tileY * 2 + (i >> 1));
+                if (children[i] != null) loadedChildren++;
+            }
+            if (loadedChildren == 4) {
+                drawChildren(batch, children, x, y, size, half, tileSize);
+                return true;
             }
         }
-        return null;
+
+        try {
+            for (int levels = 1; levels <= MAX_FALLBACK_LEVELS && zoom - levels >= config.getMinZoom(); levels++) {
+                CachedTile parent = getTile(zoom - levels, tileX >> levels, tileY >> levels);
+                if (parent != null) {
+                    int regionSize = tileSize >> levels;
+                    int mask = (1 << levels) - 1;
+                    batch.add(parent, (tileX & mask) * regionSize, (tileY & mask) * regionSize, regionSize, x, y, size);
+                    return true;
+                }
+            }
+
+            if (loadedChildren > 0) {
+                drawChildren(batch, children, x, y, size, half, tileSize);
+            }
+            return false;
+        } finally {
+            // Don't keep evicted tiles reachable from the scratch array
+            Arrays.fill(children, null);
+        }
     }
 
-    public void requestTile(TileKey key) {
-        synchronized (tileCache) {
-            if (tileCache.containsKey(key)) {
-                return;
+    private static void drawChildren(TileBatch batch, CachedTile[] children, int x, int y, int size, int half, int tileSize) {
+        for (int i = 0; i < 4; i++) {
+            if (children[i] != null) {
+                int childX = (i & 1) == 0 ? x : x + half;
+                int childY = (i >> 1) == 0 ? y : y + half;
+                batch.add(children[i], 0, 0, tileSize, childX, childY, (i & 1) == 0 ? half : size - half);
             }
         }
+    }
 
-        if (pendingFetches.containsKey(key)) {
+    // Only allocates when a fetch is actually queued
+    public void requestTile(int zoom, int tileX, int tileY, TileFetchScheduler.Priority priority) {
+        long key = TileMath.pack(zoom, tileX, tileY);
+        // Decoded tiles waiting for upload count as fetched, so the key is never fetched twice
+        if (tileCache.contains(key) || uploadQueue.isQueued(key) || failures.isBlocked(key)) {
             return;
         }
+        scheduler.submit(zoom, tileX, tileY, priority);
+    }
 
-        CompletableFuture<CachedTile> future = CompletableFuture.supplyAsync(() -> {
-            try {
-                return fetchTile(key);
-            } catch (Exception e) {
-                LostCompassMapMod.LOGGER.warn("Failed to fetch tile {}: {}", key, e.getMessage());
-                return null;
+    // Visible tiles at VISIBLE priority, the margin at PREFETCH; untracked tiles' queued fetches
+    // are dropped
+    public TileViewTracker createViewTracker(int margin) {
+        return new TileViewTracker(new TileViewTracker.Listener() {
+            @Override
+            public void tileEntered(int zoom, int x, int y) {
+                trackedTiles.addTo(TileMath.pack(zoom, x, y), 1);
             }
-        }, executor);
 
-        pendingFetches.put(key, future);
+            @Override
+            public void tileLeft(int zoom, int x, int y) {
+                long key = TileMath.pack(zoom, x, y);
+                if (trackedTiles.addTo(key, -1) <= 1) {
+                    trackedTiles.remove(key);
+                    scheduler.cancelQueued(key);
+                }
+            }
 
-        future.thenAccept(tile -> {
-            pendingFetches.remove(key);
-            if (tile != null) {
-                MinecraftClient.getInstance().execute(() -> {
-                    synchronized (tileCache) {
-                        tileCache.put(key, tile);
-                    }
-                });
+            @Override
+            public void tileWanted(int zoom, int x, int y, boolean visible) {
+                requestTile(zoom, x, y,
+                        visible ? TileFetchScheduler.Priority.VISIBLE : TileFetchScheduler.Priority.PREFETCH);
             }
-        });
+        }, margin);
     }
 
-    private CachedTile fetchTile(TileKey key) throws Exception {
-        String url = config.getTileUrl(key.zoom(), key.x(), key.y());
+    public void dropSpeculative(LongPredicate stillLikely) {
+        scheduler.dropSpeculative(stillLikely);
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .timeout(Duration.ofSeconds(30))
-                .GET()
-                .build();
+    public void setViewFocus(double worldX, double worldZ, int zoom, int retainRadius) {
+        scheduler.setFocus(worldX, worldZ, zoom, retainRadius);
+        hasViewFocus = true;
+        viewFocusX = worldX;
+        viewFocusZ = worldZ;
+        viewFocusZoom = zoom;
+    }
+
+    // A refresh whose bytes hash the same, as every 304 does, only restarts the tile's age
+    private void fetchTile(TileKey key, long knownHash) throws Exception {
+        if (key.zoom() < config.getServerMinZoom()) {
+            uploadQueue.put(new TileUploadQueue.DecodedTile(key, buildPyramidTile(key), NO_CONTENT_HASH));
+            return;
+        }
+        byte[] data = knownHash != NO_CONTENT_HASH
+                ? loadTileBytes(key, config.getTileRefreshMillis())
+                : loadTileBytes(key);
+        long hash = contentHash(data);
+        if (hash == knownHash) {
+            metrics.increment(MapMetrics.Counter.TILES_UNCHANGED);
+            MinecraftClient.getInstance().execute(() -> markUnchanged(key.packed(), hash));
+            return;
+        }
+        uploadQueue.put(new TileUploadQueue.DecodedTile(key, decodeTile(key, data), hash));
+    }
 
-        HttpResponse<InputStream> response = httpClient.send(request,
-                HttpResponse.BodyHandlers.ofInputStream());
+    // Length and CRC-32C of the PNG bytes; never NO_CONTENT_HASH
+    static long contentHash(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (long) data.length << 32 | crc.getValue();
+    }
 
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("HTTP " + response.statusCode());
+    private void markUnchanged(long key, long hash) {
+        CachedTile tile = tileCache.peek(key);
+        if (tile != null && tile.contentHash == hash) {
+            tile.fetchedAt = System.currentTimeMillis();
         }
+    }
 
-        try (InputStream is = response.body()) {
+    private NativeImage decodeTile(TileKey key, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        try (InputStream is = new ByteArrayInputStream(data)) {
             NativeImage image = NativeImage.read(is);
+            metrics.recordSince(MapMetrics.Timer.DECODE, start);
+            return image;
+        } catch (IOException | RuntimeException e) {
+            // Never keep serving a corrupt tile from disk
+            if (diskCache != null) diskCache.delete(key);
+            failures.recordTransient(key);
+            throw e;
+        }
+    }
 
-            final NativeImage finalImage = image;
-            final int id = textureIdCounter++;
-            final Identifier textureId = Identifier.of(LostCompassMapMod.MOD_ID,
-                    "tile_" + key.zoom() + "_" + key.x() + "_" + key.y() + "_" + id);
-
-            CompletableFuture<CachedTile> result = new CompletableFuture<>();
+    // Sources are loaded through the disk cache. Missing ones stay transparent; any other
+    // failure fails the tile so it is retried rather than cached with holes
+    private NativeImage buildPyramidTile(TileKey key) throws Exception {
+        int serverMinZoom = config.getServerMinZoom();
+        int factor = TilePyramid.factor(key.zoom(), serverMinZoom);
+        List<Future<NativeImage>> sources = new ArrayList<>(factor * factor);
+        NativeImage[] images = new NativeImage[factor * factor];
 
-            MinecraftClient.getInstance().execute(() -> {
+        try {
+            for (int i = 0; i < images.length; i++) {
+                TileKey source = new TileKey(serverMinZoom, key.x() * factor + i % factor, key.y() * factor + i / factor);
+                sources.add(http.getExecutor().submit(() -> loadPyramidSource(source)));
+            }
+            for (int i = 0; i < images.length; i++) {
                 try {
-                    NativeImageBackedTexture texture = new NativeImageBackedTexture(
-                            () -> textureId.toString(), finalImage);
-                    MinecraftClient.getInstance().getTextureManager()
-                            .registerTexture(textureId, texture);
-                    result.complete(new CachedTile(textureId, texture));
-                } catch (Exception e) {
-                    result.completeExceptionally(e);
+                    images[i] = sources.get(i).get();
+                } catch (ExecutionException e) {
+                    failures.recordTransient(key);
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+            return TilePyramid.compose(images, factor, config.getTileSize());
+        } finally {
+            for (int i = 0; i < sources.size(); i++) {
+                Future<NativeImage> source = sources.get(i);
+                if (!source.cancel(true) && images[i] == null && source.state() == Future.State.SUCCESS
+                        && source.resultNow() != null) {
+                    // Finished after we stopped collecting
+                    source.resultNow().close();
                 }
-            });
+            }
+            for (NativeImage image : images) {
+                if (image != null) image.close();
+            }
+        }
+    }
+
+    private NativeImage loadPyramidSource(TileKey key) throws Exception {
+        if (failures.isKnownMissing(key)) {
+            return null;
+        }
+        byte[] data;
+        try {
+            data = loadTileBytes(key);
+        } catch (TileFetchException e) {
+            if (failures.isKnownMissing(key)) {
+                return null;
+            }
+            throw e;
+        }
+        NativeImage image = decodeTile(key, data);
+        if (Thread.currentThread().isInterrupted()) {
+            image.close();
+            throw new InterruptedException();
+        }
+        return image;
+    }
+
+    // For bulk downloads. Returns whether the server was asked
+    public boolean downloadToDisk(TileKey key) throws Exception {
+        long fetchedAt = diskCache.getFetchedAt(key);
+        if (fetchedAt >= 0 && System.currentTimeMillis() - fetchedAt < config.getDiskCacheMaxAgeMillis()) {
+            return false;
+        }
+        if (failures.isKnownMissing(key)) {
+            throw new TileFetchException(404, "HTTP 404");
+        }
+        loadTileBytes(key);
+        return true;
+    }
+
+    // Once per frame on the render thread; also queues refreshes of stale tiles
+    public void processUploads() {
+        uploadQueue.drain(config.getUploadBudgetNanosPerFrame(), config.getUploadBudgetBytesPerFrame(), this::upload);
+        refreshStaleTiles();
+    }
+
+    private void upload(TileUploadQueue.DecodedTile decoded) {
+        long start = System.nanoTime();
+        NativeImage image = decoded.image();
+        long key = decoded.key().packed();
+        int width = Math.min(image.getWidth(), atlas.getTileSize());
+        int height = Math.min(image.getHeight(), atlas.getTileSize());
+
+        CachedTile loaded = tileCache.peek(key);
+        if (loaded != null && loaded.width == width && loaded.height == height) {
+            // A refresh that found new pixels: overwrite the slot the tile already occupies
+            atlas.upload(loaded.slot, image);
+            loaded.contentHash = decoded.contentHash();
+            loaded.fetchedAt = System.currentTimeMillis();
+            tileCache.markChanged();
+            metrics.increment(MapMetrics.Counter.TILES_REPLACED);
+        } else {
+            TileAtlas.Slot slot = atlas.allocate();
+            atlas.upload(slot, image);
+            tileCache.put(key, new CachedTile(atlas, slot, width, height, decoded.contentHash()));
+        }
+        metrics.recordSince(MapMetrics.Timer.UPLOAD, start);
+    }
+
+    // For benchmarks without a GPU to upload to
+    void putLoaded(int zoom, int tileX, int tileY, CachedTile tile) {
+        tileCache.put(TileMath.pack(zoom, tileX, tileY), tile);
+    }
+
+    // The refresh interval grows by tileRefreshSeconds per tile of distance from the view focus
+    // or the player. At most once a second, only while nothing else is queued, nearest first
+    private void refreshStaleTiles() {
+        long refreshMillis = config.getTileRefreshMillis();
+        long nowNanos = System.nanoTime();
+        if (refreshMillis <= 0 || !hasViewFocus || nowNanos - refreshScanAt < REFRESH_SCAN_NANOS) {
+            return;
+        }
+        refreshScanAt = nowNanos;
+        if (scheduler.getQueuedCount() > 0 || circuitBreaker.isOpen()) {
+            return;
+        }
+        int zoom = Math.min(viewFocusZoom, config.getServerMaxZoom());
+        if (zoom < config.getServerMinZoom()) {
+            return;
+        }
+
+        int blocksPerTile = config.getBlocksPerTile(zoom);
+        int viewX = TileMath.tileCoord(viewFocusX, blocksPerTile);
+        int viewY = TileMath.tileCoord(viewFocusZ, blocksPerTile);
+        int playerX = viewX;
+        int playerY = viewY;
+        PlayerEntity player = MinecraftClient.getInstance().player;
+        if (player != null) {
+            playerX = TileMath.tileCoord(player.getX(), blocksPerTile);
+            playerY = TileMath.tileCoord(player.getZ(), blocksPerTile);
+        }
+        boolean twoCenters = playerX != viewX || playerY != viewY;
 
-            return result.get();
+        long now = System.currentTimeMillis();
+        int budget = MAX_REFRESHES_PER_SCAN;
+        for (int ring = 0; ring <= config.getTileRefreshRadius() && budget > 0; ring++) {
+            budget -= refreshRing(zoom, viewX, viewY, ring, playerX, playerY, now, budget);
+            if (twoCenters && budget > 0) {
+                budget -= refreshRing(zoom, playerX, playerY, ring, viewX, viewY, now, budget);
+            }
         }
     }
 
-    public void preloadTilesAround(double worldX, double worldZ, int zoom, int radius) {
-        TileKey center = worldToTile(worldX, worldZ, zoom);
-        for (int dx = -radius; dx <= radius; dx++) {
-            for (int dy = -radius; dy <= radius; dy++) {
-                TileKey key = new TileKey(zoom, center.x() + dx, center.y() + dy);
-                if (getTile(key) == null) {
-                    requestTile(key);
+    // Distance is measured to whichever center is nearer
+    private int refreshRing(int zoom, int centerX, int centerY, int ring, int otherX, int otherY, long now, int budget) {
+        long refreshMillis = config.getTileRefreshMillis();
+        int queued = 0;
+        for (int dy = -ring; dy <= ring && queued < budget; dy++) {
+            // Inner rows only have their two edge tiles on the ring
+            int step = Math.abs(dy) == ring ? 1 : 2 * ring;
+            for (int dx = -ring; dx <= ring && queued < budget; dx += step) {
+                int x = centerX + dx;
+                int y = centerY + dy;
+                long key = TileMath.pack(zoom, x, y);
+                CachedTile tile = tileCache.peek(key);
+                if (tile == null || tile.contentHash == NO_CONTENT_HASH) {
+                    continue;
+                }
+                int distance = Math.min(ring, Math.max(Math.abs(x - otherX), Math.abs(y - otherY)));
+                if (now - tile.fetchedAt >= refreshMillis * (1 + distance) && !failures.isBlocked(key)
+                        && scheduler.submitRefresh(zoom, x, y, tile.contentHash)) {
+                    queued++;
                 }
             }
         }
+        return queued;
     }
 
-    public void shutdown() {
-        executor.shutdown();
-        synchronized (tileCache) {
-            for (CachedTile tile : tileCache.values()) {
-                tile.destroy();
+    private byte[] loadTileBytes(TileKey key) throws Exception {
+        return loadTileBytes(key, config.getDiskCacheMaxAgeMillis());
+    }
+
+    private byte[] loadTileBytes(TileKey key, long maxAgeMillis) throws Exception {
+        TileDiskCache.Entry cached = diskCache != null ? diskCache.get(key) : null;
+        if (cached != null && cached.isFresh(maxAgeMillis)) {
+            return cached.data();
+        }
+
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (!permit.isGranted()) {
+            if (cached != null) {
+                return cached.data();
+            }
+            failures.recordBlocked(key, circuitBreaker.getRetryAt());
+            throw new TileFetchException(0, "map server unavailable");
+        }
+
+        String url = config.getTileUrl(key.zoom(), key.x(), key.y());
+
+        HttpRequest.Builder builder = MapHttpClient.get(url, Duration.ofSeconds(30));
+        if (cached != null) {
+            // Revalidate the stale copy instead of downloading it again
+            if (cached.etag() != null) builder.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) builder.header("If-Modified-Since", cached.lastModified());
+        }
+
+        HttpResponse<byte[]> response;
+        long start = System.nanoTime();
+        try {
+            response = http.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+            metrics.recordSince(MapMetrics.Timer.FETCH, start);
+        } catch (InterruptedException e) {
+            if (permit == CircuitBreaker.Permit.PROBE) {
+                circuitBreaker.releaseProbe();
             }
-            tileCache.clear();
+            throw e;
+        } catch (IOException e) {
+            // Timeouts and connection failures count against the host
+            circuitBreaker.recordFailure();
+            failures.recordTransient(key);
+            if (cached != null) {
+                LostCompassMapMod.LOGGER.debug("Serving stale tile {} from disk: {}", key, e.getMessage());
+                return cached.data();
+            }
+            throw e;
+        }
+
+        int status = response.statusCode();
+        if (status >= 500 || status == 429) {
+            circuitBreaker.recordFailure();
+            failures.recordTransient(key);
+            if (cached != null) {
+                return cached.data();
+            }
+            throw new TileFetchException(status, "HTTP " + status);
+        }
+
+        // Any other answer means the host itself is up
+        circuitBreaker.recordSuccess();
+
+        if (status == 304 && cached != null) {
+            failures.recordSuccess(key);
+            return diskCache.touch(key, cached).data();
+        }
+
+        if (status != 200) {
+            // 404 for ungenerated or out-of-bounds areas; other 4xx won't fix themselves either
+            failures.recordNotFound(key);
+            if (cached != null) {
+                diskCache.delete(key);
+            }
+            throw new TileFetchException(status, "HTTP " + status);
+        }
+
+        failures.recordSuccess(key);
+        byte[] body = response.body();
+        metrics.add(MapMetrics.Counter.TILE_BYTES, body.length);
+        if (diskCache != null) {
+            diskCache.put(key, body,
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null));
+        }
+        return body;
+    }
+
+    // Render thread only: the client stops taking tasks while it shuts down
+    public void shutdown() {
+        scheduler.shutdown();
+        if (diskCache != null) {
+            diskCache.close();
+        }
+        uploadQueue.clear();
+        tileCache.clear();
+        atlas.clear();
+    }
+
+    public TileCache.Usage getCacheUsage() {
+        return tileCache.usage();
+    }
+
+    public long getCacheVersion() {
+        return tileCache.getVersion();
+    }
+
+    public int getUploadQueueSize() {
+        return uploadQueue.size();
+    }
+
+    // p90 fetch plus decode time of the last couple of seconds. Render thread only
+    public long getTileLatencyMicros() {
+        long now = System.nanoTime();
+        if (latencySnapshot != null && now - latencySnapshotAt < LATENCY_REFRESH_NANOS) {
+            return tileLatencyMicros;
+        }
+        MapMetrics.Snapshot snapshot = metrics.snapshot();
+        if (latencySnapshot != null && snapshot.count(MapMetrics.Timer.FETCH, latencySnapshot) > 0) {
+            tileLatencyMicros = snapshot.percentileMicros(MapMetrics.Timer.FETCH, 90, latencySnapshot)
+                    + Math.max(0, snapshot.percentileMicros(MapMetrics.Timer.DECODE, 90, latencySnapshot));
         }
+        latencySnapshot = snapshot;
+        latencySnapshotAt = now;
+        return tileLatencyMicros;
+    }
+
+    public boolean isServerUnavailable() {
+        return circuitBreaker.isOpen();
+    }
+
+    public long getServerRetryAt() {
+        return circuitBreaker.getRetryAt();
+    }
+
+    public TileFetchScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public TileAtlas getAtlas() {
+        return atlas;
+    }
+
+    public TileDiskCache getDiskCache() {
+        return diskCache;
     }
 
     public ModConfig getConfig() {
         return config;
     }
+
+    public MapMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,36 @@
+package com.lostcompass.mapmod.client;
+
+/**
+ * Allocation-free tile arithmetic for the render path. Tile keys are packed into a single
+ * {@code long} (8 bits of zoom, 28 bits each of x and y, all signed) so per-frame lookups
+ * need neither a {@link TileManager.TileKey} nor a boxed key.
+ */
+public final class TileMath {
+    private static final int COORD_BITS = 28;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private TileMath() {}
+
+    public static long pack(int zoom, int x, int y) {
+        return (long) (zoom & 0xFF) << (2 * COORD_BITS) | (x & COORD_MASK) << COORD_BITS | (y & COORD_MASK);
+    }
+
+    public static int zoom(long key) {
+        return (int) (key >> (2 * COORD_BITS));
+    }
+
+    public static int x(long key) {
+        return (int) (key << (64 - 2 * COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    public static int y(long key) {
+        return (int) (key << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    /**
+     * The tile column (or row) containing a world coordinate.
+     */
+    public static int tileCoord(double world, int blocksPerTile) {
+        return (int) Math.floor(world / blocksPerTile);
+    }
+}
@@ -0,0 +1,65 @@
+package com.lostcompass.mapmod.client;
+
+import net.minecraft.client.texture.NativeImage;
+
+/**
+ * Builds tiles for zoom levels below the server's minimum by box-filtering a square of
+ * server tiles down into a single tile, so zooming far out costs one texture per tile
+ * instead of {@code factor^2} full-resolution ones.
+ */
+public final class TilePyramid {
+    private TilePyramid() {}
+
+    /**
+     * Number of server tiles per axis that make up one tile at {@code zoom}.
+     */
+    public static int factor(int zoom, int serverMinZoom) {
+        return 1 << (serverMinZoom - zoom);
+    }
+
+    /**
+     * Composites {@code factor x factor} source tiles (row-major, null where the server has no
+     * tile) into one {@code tileSize} image, averaging each {@code factor x factor} pixel block.
+     */
+    public static NativeImage compose(NativeImage[] sources, int factor, int tileSize) {
+        NativeImage target = new NativeImage(tileSize, tileSize, true);
+        int cell = tileSize / factor;
+
+        for (int i = 0; i < sources.length; i++) {
+            NativeImage source = sources[i];
+            int originX = (i % factor) * cell;
+            int originY = (i / factor) * cell;
+            if (source == null) {
+                target.fillRect(originX, originY, cell, cell, 0);
+                continue;
+            }
+            downsampleInto(source, target, originX, originY, cell, factor);
+        }
+        return target;
+    }
+
+    private static void downsampleInto(NativeImage source, NativeImage target, int originX, int originY,
+                                       int cell, int factor) {
+        int maxX = source.getWidth() - 1;
+        int maxY = source.getHeight() - 1;
+        int samples = factor * factor;
+
+        for (int y = 0; y < cell; y++) {
+            for (int x = 0; x < cell; x++) {
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int sy = 0; sy < factor; sy++) {
+                    int py = Math.min(maxY, y * factor + sy);
+                    for (int sx = 0; sx < factor; sx++) {
+                        int argb = source.getColorArgb(Math.min(maxX, x * factor + sx), py);
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xFF;
+                        g += (argb >> 8) & 0xFF;
+                        b += argb & 0xFF;
+                    }
+                }
+                target.setColorArgb(originX + x, originY + y,
+                        (a / samples) << 24 | (r / samples) << 16 | (g / samples) << 8 | (b / samples));
+            }
+        }
+    }
+}
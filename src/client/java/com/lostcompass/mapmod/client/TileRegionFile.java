@@ -0,0 +1,372 @@
+package com.lostcompass.mapmod.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Append-only file of REGION_SIZE x REGION_SIZE tiles of one zoom:
+//   header   magic, version, zoom, regionX, regionY, reserved       (6 x int)
+//   index    REGION_SIZE^2 x (long offset, int length, int reserved)
+//   records  long fetchedAt, short etagLen, etag, short lastModifiedLen, lastModified, int dataLen, data
+// Rewriting a tile appends a record and repoints its index slot
+public class TileRegionFile implements Closeable {
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    // Appends that would grow a file past this compact it first
+    static final long MAX_BYTES = 1L << 30;
+
+    private static final int MAGIC = 0x4C434D52; // "LCMR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final int SLOTS = REGION_SIZE * REGION_SIZE;
+    private static final int DATA_START = HEADER_BYTES + SLOTS * INDEX_ENTRY_BYTES;
+    private static final int MIN_RECORD_BYTES = Long.BYTES + Short.BYTES + Short.BYTES + Integer.BYTES;
+    private static final long MIN_COMPACT_WASTE = 1L << 20;
+
+    private final Path path;
+    private final int zoom;
+    private final int regionX;
+    private final int regionY;
+    private FileChannel channel;
+    private long size;
+    // In-memory copy of the index, so a lookup is a single positional read
+    private final long[] offsets = new long[SLOTS];
+    private final int[] lengths = new int[SLOTS];
+    private final ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES);
+
+    public interface EntryVisitor {
+        void visit(int localX, int localY, TileDiskCache.Entry entry) throws IOException;
+    }
+
+    private TileRegionFile(Path path, int zoom, int regionX, int regionY) {
+        this.path = path;
+        this.zoom = zoom;
+        this.regionX = regionX;
+        this.regionY = regionY;
+    }
+
+    // Null if the file doesn't exist and create isn't set
+    public static TileRegionFile open(Path path, int zoom, int regionX, int regionY, boolean create) throws IOException {
+        if (!create && !Files.exists(path)) {
+            return null;
+        }
+        Files.createDirectories(path.getParent());
+        TileRegionFile region = new TileRegionFile(path, zoom, regionX, regionY);
+        region.openChannel();
+        try {
+            region.compactIfWasteful();
+        } catch (IOException e) {
+            region.close();
+            throw e;
+        }
+        return region;
+    }
+
+    public static int regionCoord(int tileCoord) {
+        return tileCoord >> REGION_SHIFT;
+    }
+
+    public static int localCoord(int tileCoord) {
+        return tileCoord & (REGION_SIZE - 1);
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getRegionX() {
+        return regionX;
+    }
+
+    public int getRegionY() {
+        return regionY;
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        size = channel.size();
+
+        ByteBuffer header = ByteBuffer.allocate(DATA_START);
+        if (size >= DATA_START) {
+            readFully(header, 0);
+            header.flip();
+        }
+        if (size < DATA_START || header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                || header.getInt(8) != zoom || header.getInt(12) != regionX || header.getInt(16) != regionY) {
+            // New or foreign file: start over with an empty index
+            channel.truncate(0);
+            header.clear();
+            header.putInt(MAGIC).putInt(VERSION).putInt(zoom).putInt(regionX).putInt(regionY).putInt(0);
+            header.put(new byte[DATA_START - HEADER_BYTES]).flip();
+            writeFully(header, 0);
+            size = DATA_START;
+            Arrays.fill(offsets, 0);
+            Arrays.fill(lengths, 0);
+            return;
+        }
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long offset = header.getLong(indexPosition(slot));
+            int length = header.getInt(indexPosition(slot) + Long.BYTES);
+            // An entry pointing outside the records is corrupt; the tile is just fetched again
+            if (offset != 0 && (offset < DATA_START || length < MIN_RECORD_BYTES || offset + length > size)) {
+                offset = 0;
+                length = 0;
+            }
+            offsets[slot] = offset;
+            lengths[slot] = length;
+        }
+    }
+
+    private static int slot(int localX, int localY) {
+        return localY * REGION_SIZE + localX;
+    }
+
+    private static int indexPosition(int slot) {
+        return HEADER_BYTES + slot * INDEX_ENTRY_BYTES;
+    }
+
+    // A record that doesn't decode is dropped
+    public synchronized TileDiskCache.Entry read(int localX, int localY) throws IOException {
+        int slot = slot(localX, localY);
+        if (offsets[slot] == 0) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(lengths[slot]);
+        readFully(record, offsets[slot]);
+        try {
+            return decodeRecord(record.flip());
+        } catch (IOException e) {
+            clear(slot);
+            throw e;
+        }
+    }
+
+    public synchronized long readFetchedAt(int localX, int localY) throws IOException {
+        int slot = slot(localX, localY);
+        if (offsets[slot] == 0) {
+            return -1;
+        }
+        stamp.clear();
+        readFully(stamp, offsets[slot]);
+        return stamp.getLong(0);
+    }
+
+    public synchronized void write(int localX, int localY, TileDiskCache.Entry entry) throws IOException {
+        ByteBuffer record = encodeRecord(entry);
+        int length = record.remaining();
+        if (size + length > MAX_BYTES) {
+            compact();
+            if (size + length > MAX_BYTES) {
+                throw new IOException("Region file full");
+            }
+        }
+        long offset = size;
+        writeFully(record, offset);
+        size += length;
+
+        int slot = slot(localX, localY);
+        ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        index.putLong(offset).putInt(length).putInt(0).flip();
+        writeFully(index, indexPosition(slot));
+        offsets[slot] = offset;
+        lengths[slot] = length;
+    }
+
+    public synchronized void touch(int localX, int localY, long fetchedAt) throws IOException {
+        int slot = slot(localX, localY);
+        if (offsets[slot] != 0) {
+            stamp.clear();
+            stamp.putLong(fetchedAt).flip();
+            writeFully(stamp, offsets[slot]);
+        }
+    }
+
+    public synchronized void remove(int localX, int localY) throws IOException {
+        clear(slot(localX, localY));
+    }
+
+    private void clear(int slot) throws IOException {
+        offsets[slot] = 0;
+        lengths[slot] = 0;
+        writeFully(ByteBuffer.allocate(INDEX_ENTRY_BYTES), indexPosition(slot));
+    }
+
+    public synchronized long compactedSize() {
+        long total = DATA_START;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            total += lengths[slot];
+        }
+        return total;
+    }
+
+    public synchronized void writeCompacted(WritableByteChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DATA_START);
+        header.putInt(MAGIC).putInt(VERSION).putInt(zoom).putInt(regionX).putInt(regionY).putInt(0);
+
+        long next = DATA_START;
+        int largest = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (offsets[slot] != 0) {
+                header.putLong(next).putInt(lengths[slot]).putInt(0);
+                next += lengths[slot];
+                largest = Math.max(largest, lengths[slot]);
+            } else {
+                header.putLong(0).putInt(0).putInt(0);
+            }
+        }
+        header.flip();
+        while (header.hasRemaining()) out.write(header);
+
+        ByteBuffer record = ByteBuffer.allocate(largest);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (offsets[slot] != 0) {
+                record.clear().limit(lengths[slot]);
+                readFully(record, offsets[slot]);
+                record.flip();
+                while (record.hasRemaining()) out.write(record);
+            }
+        }
+    }
+
+    // Length-prefixed; writes nothing and returns 0 for an empty region
+    public synchronized int writeToPack(WritableByteChannel out) throws IOException {
+        int tiles = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (offsets[slot] != 0) tiles++;
+        }
+        if (tiles == 0) {
+            return 0;
+        }
+
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        length.putLong(compactedSize()).flip();
+        while (length.hasRemaining()) out.write(length);
+        writeCompacted(out);
+        return tiles;
+    }
+
+    private void compactIfWasteful() throws IOException {
+        long live = compactedSize();
+        long waste = size - live;
+        if (waste >= MIN_COMPACT_WASTE && waste >= live) {
+            compact();
+        }
+    }
+
+    // Nothing is mapped, so the file can be replaced as soon as its channel is closed
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeCompacted(out);
+        }
+        channel.close();
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // Reopens the original file if it couldn't be replaced
+            openChannel();
+        }
+    }
+
+    // {zoom, regionX, regionY}, or null if invalid
+    public static int[] readHeader(ByteBuffer buffer) {
+        if (buffer.limit() < DATA_START || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        return new int[]{buffer.getInt(8), buffer.getInt(12), buffer.getInt(16)};
+    }
+
+    public static void forEachEntry(ByteBuffer buffer, EntryVisitor visitor) throws IOException {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long offset = buffer.getLong(indexPosition(slot));
+            if (offset == 0) {
+                continue;
+            }
+            int length = buffer.getInt(indexPosition(slot) + Long.BYTES);
+            if (offset < DATA_START || length < MIN_RECORD_BYTES || offset + length > buffer.limit()) {
+                throw new IOException("Corrupt tile record in region");
+            }
+            visitor.visit(slot % REGION_SIZE, slot / REGION_SIZE, decodeRecord(buffer.slice((int) offset, length)));
+        }
+    }
+
+    private static TileDiskCache.Entry decodeRecord(ByteBuffer record) throws IOException {
+        // Lengths inside a damaged record can point anywhere
+        try {
+            long fetchedAt = record.getLong();
+            String etag = readString(record);
+            String lastModified = readString(record);
+            byte[] data = new byte[record.getInt()];
+            record.get(data);
+            return new TileDiskCache.Entry(data, etag, lastModified, fetchedAt);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt tile record in region", e);
+        }
+    }
+
+    private static ByteBuffer encodeRecord(TileDiskCache.Entry entry) {
+        byte[] etag = encodeString(entry.etag());
+        byte[] lastModified = encodeString(entry.lastModified());
+        ByteBuffer record = ByteBuffer.allocate(Long.BYTES + Short.BYTES + etag.length
+                + Short.BYTES + lastModified.length + Integer.BYTES + entry.data().length);
+        record.putLong(entry.fetchedAt());
+        record.putShort((short) etag.length).put(etag);
+        record.putShort((short) lastModified.length).put(lastModified);
+        record.putInt(entry.data().length).put(entry.data());
+        return record.flip();
+    }
+
+    private static byte[] encodeString(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Validators are short header values; anything absurd is dropped rather than truncated
+        return bytes.length <= Short.MAX_VALUE ? bytes : new byte[0];
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated region file");
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
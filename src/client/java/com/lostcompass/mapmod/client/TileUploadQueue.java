@@ -0,0 +1,102 @@
+package com.lostcompass.mapmod.client;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.client.texture.NativeImage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hand-off between fetch workers, which decode tiles off-thread, and the render thread, which
+ * uploads them into the atlas. The queue is bounded so decoded images can't pile up in native
+ * memory, and the render thread drains it under a per-frame time and byte budget so a burst
+ * of finished fetches is spread over several frames instead of landing in one.
+ */
+public class TileUploadQueue {
+    private final BlockingQueue<DecodedTile> queue;
+    // Packed keys of queued tiles, guarded by itself
+    private final LongOpenHashSet queuedKeys = new LongOpenHashSet();
+
+    public record DecodedTile(TileManager.TileKey key, NativeImage image, long contentHash) {
+        public long bytes() {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+    }
+
+    public interface Uploader {
+        void upload(DecodedTile tile);
+    }
+
+    public TileUploadQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Called by fetch workers. Waits only while the queue is full (back-pressure), never for
+     * a particular upload; interrupting the worker abandons the image.
+     */
+    public void put(DecodedTile tile) throws InterruptedException {
+        setQueued(tile, true);
+        try {
+            queue.put(tile);
+        } catch (InterruptedException e) {
+            setQueued(tile, false);
+            tile.image().close();
+            throw e;
+        }
+    }
+
+    public boolean isQueued(long key) {
+        synchronized (queuedKeys) {
+            return queuedKeys.contains(key);
+        }
+    }
+
+    private void setQueued(DecodedTile tile, boolean queued) {
+        synchronized (queuedKeys) {
+            if (queued) {
+                queuedKeys.add(tile.key().packed());
+            } else {
+                queuedKeys.remove(tile.key().packed());
+            }
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Uploads queued tiles on the render thread until either budget is spent. At least one
+     * tile is uploaded per call so the queue always makes progress.
+     */
+    public int drain(long budgetNanos, long budgetBytes, Uploader uploader) {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int uploaded = 0;
+
+        DecodedTile tile;
+        while ((tile = queue.poll()) != null) {
+            bytes += tile.bytes();
+            try {
+                uploader.upload(tile);
+            } finally {
+                tile.image().close();
+                setQueued(tile, false);
+            }
+            uploaded++;
+            if (bytes >= budgetBytes || System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        return uploaded;
+    }
+
+    public void clear() {
+        DecodedTile tile;
+        while ((tile = queue.poll()) != null) {
+            tile.image().close();
+            setQueued(tile, false);
+        }
+    }
+}
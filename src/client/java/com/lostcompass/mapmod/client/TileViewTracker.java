@@ -0,0 +1,130 @@
+package com.lostcompass.mapmod.client;
+
+// The tiles one view shows plus a margin around them. Only does work when the view crosses a
+// tile boundary, changes zoom or is resized. Render thread only
+public class TileViewTracker {
+    // Tracked tiles are offered again this often so failed fetches get retried
+    private static final long RESYNC_NANOS = 1_000_000_000L;
+
+    public interface Listener {
+        void tileEntered(int zoom, int x, int y);
+
+        void tileLeft(int zoom, int x, int y);
+
+        // On entering, on moving from the margin onto the screen, and once a second
+        void tileWanted(int zoom, int x, int y, boolean visible);
+    }
+
+    private final Listener listener;
+    private final int margin;
+
+    private boolean tracking = false;
+    private int zoom;
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private long resyncAt;
+
+    public TileViewTracker(Listener listener, int margin) {
+        this.listener = listener;
+        this.margin = margin;
+    }
+
+    // Inclusive tile rectangle on screen; returns whether it changed
+    public boolean update(int zoom, int minX, int minY, int maxX, int maxY) {
+        long now = System.nanoTime();
+        if (tracking && zoom == this.zoom && minX == this.minX && minY == this.minY
+                && maxX == this.maxX && maxY == this.maxY) {
+            if (now - resyncAt >= RESYNC_NANOS) {
+                resyncAt = now;
+                resync();
+            }
+            return false;
+        }
+
+        boolean wasTracking = tracking;
+        boolean sameZoom = wasTracking && zoom == this.zoom;
+        int oldZoom = this.zoom;
+        int oldMinX = this.minX;
+        int oldMinY = this.minY;
+        int oldMaxX = this.maxX;
+        int oldMaxY = this.maxY;
+
+        if (wasTracking) {
+            for (int y = oldMinY - margin; y <= oldMaxY + margin; y++) {
+                for (int x = oldMinX - margin; x <= oldMaxX + margin; x++) {
+                    if (!sameZoom || !inside(x, y, minX - margin, minY - margin, maxX + margin, maxY + margin)) {
+                        listener.tileLeft(oldZoom, x, y);
+                    }
+                }
+            }
+        }
+
+        tracking = true;
+        this.zoom = zoom;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        resyncAt = now;
+
+        for (int y = minY - margin; y <= maxY + margin; y++) {
+            for (int x = minX - margin; x <= maxX + margin; x++) {
+                boolean visible = inside(x, y, minX, minY, maxX, maxY);
+                if (!sameZoom || !inside(x, y, oldMinX - margin, oldMinY - margin, oldMaxX + margin, oldMaxY + margin)) {
+                    listener.tileEntered(zoom, x, y);
+                    listener.tileWanted(zoom, x, y, visible);
+                } else if (visible && !inside(x, y, oldMinX, oldMinY, oldMaxX, oldMaxY)) {
+                    listener.tileWanted(zoom, x, y, true);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void resync() {
+        for (int y = minY - margin; y <= maxY + margin; y++) {
+            for (int x = minX - margin; x <= maxX + margin; x++) {
+                listener.tileWanted(zoom, x, y, inside(x, y, minX, minY, maxX, maxY));
+            }
+        }
+    }
+
+    private static boolean inside(int x, int y, int minX, int minY, int maxX, int maxY) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    // Reports every tracked tile as left; the next update starts over
+    public void clear() {
+        if (!tracking) {
+            return;
+        }
+        tracking = false;
+        for (int y = minY - margin; y <= maxY + margin; y++) {
+            for (int x = minX - margin; x <= maxX + margin; x++) {
+                listener.tileLeft(zoom, x, y);
+            }
+        }
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+}
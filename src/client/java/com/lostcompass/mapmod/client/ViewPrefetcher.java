@@ -0,0 +1,243 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Fetches what the full map is about to show before it is asked to, from what the user is
+ * doing rather than a fixed square. While the view pans (dragged or with the keys) the screen
+ * window at the pan's predicted position is fetched; how far ahead depends on the pan speed
+ * and on how long tiles currently take to arrive. After a zoom, the next level in the same
+ * direction is fetched in case the user keeps going, for the view that zoom would show: the
+ * map zooms about the cursor, so that is the point the predicted window is scaled around.
+ * <p>
+ * Everything is requested at {@link TileFetchScheduler.Priority#SPECULATIVE} priority, and
+ * queued requests are dropped as soon as the intent behind them changes or lapses. Render
+ * thread only.
+ */
+public class ViewPrefetcher {
+    // Pan speed smoothing time constant; drag and key repeat events don't arrive every frame
+    private static final double SMOOTHING_SECONDS = 0.15;
+    // With no pan event for this long the view counts as stopped
+    private static final long PAN_IDLE_NANOS = 200_000_000L;
+    // Pans slower than this (screen pixels per second) aren't worth predicting
+    private static final double MIN_PAN_PIXELS_PER_SECOND = 100;
+    // The lookahead covers this multiple of the measured tile latency, within a screen
+    private static final double LATENCY_SAFETY = 2;
+    // A zoom suggests another one in the same direction for this long
+    private static final long ZOOM_INTENT_NANOS = 1_500_000_000L;
+    // An unchanged prediction is walked again this often so failed fetches get re-requested
+    private static final long REWALK_NANOS = 1_000_000_000L;
+
+    private final TileManager tileManager;
+    private final ModConfig config;
+
+    private double pendingPanX;
+    private double pendingPanZ;
+    private long lastPanAt;
+    private long updatedAt;
+    private double velocityX;
+    private double velocityZ;
+
+    private int zoomDirection = 0;
+    private long zoomIntentAt;
+    // World position the last zoom was anchored at
+    private double zoomAnchorX;
+    private double zoomAnchorZ;
+
+    // Tiles currently predicted, by intent
+    private final TileRect panAhead = new TileRect();
+    private final TileRect zoomAhead = new TileRect();
+    private final LongPredicate stillLikely = key -> panAhead.contains(key) || zoomAhead.contains(key);
+    private long walkedAt;
+
+    private static final class TileRect {
+        boolean empty = true;
+        int zoom;
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+
+        /**
+         * @return whether the rectangle changed
+         */
+        boolean set(int zoom, int minX, int minY, int maxX, int maxY) {
+            boolean changed = empty || zoom != this.zoom || minX != this.minX || minY != this.minY
+                    || maxX != this.maxX || maxY != this.maxY;
+            this.empty = false;
+            this.zoom = zoom;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            return changed;
+        }
+
+        /**
+         * @return whether the rectangle changed
+         */
+        boolean clear() {
+            boolean changed = !empty;
+            empty = true;
+            return changed;
+        }
+
+        boolean contains(long key) {
+            if (empty || TileMath.zoom(key) != zoom) {
+                return false;
+            }
+            int x = TileMath.x(key);
+            int y = TileMath.y(key);
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+
+    public ViewPrefetcher(TileManager tileManager, ModConfig config) {
+        this.tileManager = tileManager;
+        this.config = config;
+    }
+
+    /**
+     * Records that the view center moved by a pan (not a jump such as re-centering).
+     */
+    public void onPan(double deltaX, double deltaZ) {
+        pendingPanX += deltaX;
+        pendingPanZ += deltaZ;
+        lastPanAt = System.nanoTime();
+    }
+
+    /**
+     * Records the end of a drag, so the prediction stops without waiting for the idle timeout.
+     */
+    public void onPanEnd() {
+        lastPanAt = 0;
+    }
+
+    /**
+     * Records a zoom step in {@code direction} (+1 in, -1 out) that kept the world position
+     * ({@code anchorX}, {@code anchorZ}) in place on screen. Pan speed is in blocks, which mean
+     * something else at the new zoom, so it starts over.
+     */
+    public void onZoom(int direction, double anchorX, double anchorZ) {
+        zoomDirection = Integer.signum(direction);
+        zoomIntentAt = System.nanoTime();
+        zoomAnchorX = anchorX;
+        zoomAnchorZ = anchorZ;
+        velocityX = 0;
+        velocityZ = 0;
+        pendingPanX = 0;
+        pendingPanZ = 0;
+    }
+
+    /**
+     * Updates the prediction for this frame's view and requests its tiles. Call once per frame.
+     *
+     * @return how many tiles (at the view's tile zoom) the prediction reaches from the center
+     */
+    public int update(double centerX, double centerZ, int zoom, int width, int height) {
+        long now = System.nanoTime();
+        updateVelocity(now);
+
+        int tileSize = config.getTileSize();
+        int serverMaxZoom = config.getServerMaxZoom();
+        int tileZoom = Math.min(zoom, serverMaxZoom);
+        int tileBlocks = config.getBlocksPerTile(tileZoom);
+        double pixelsPerBlock = (double) tileSize / config.getBlocksPerTile(zoom);
+        double halfWidth = width / 2.0 / pixelsPerBlock;
+        double halfHeight = height / 2.0 / pixelsPerBlock;
+        double reachBlocks = 0;
+
+        boolean changed;
+        double speed = Math.sqrt(velocityX * velocityX + velocityZ * velocityZ);
+        if (speed * pixelsPerBlock >= MIN_PAN_PIXELS_PER_SECOND) {
+            double seconds = tileManager.getTileLatencyMicros() / 1e6 * LATENCY_SAFETY;
+            // Never further than one screen, so the predicted window meets the current one
+            double aheadX = Math.clamp(velocityX * seconds, -2 * halfWidth, 2 * halfWidth);
+            double aheadZ = Math.clamp(velocityZ * seconds, -2 * halfHeight, 2 * halfHeight);
+            changed = panAhead.set(tileZoom,
+                    TileMath.tileCoord(centerX + aheadX - halfWidth, tileBlocks),
+                    TileMath.tileCoord(centerZ + aheadZ - halfHeight, tileBlocks),
+                    TileMath.tileCoord(centerX + aheadX + halfWidth, tileBlocks),
+                    TileMath.tileCoord(centerZ + aheadZ + halfHeight, tileBlocks));
+            reachBlocks = Math.max(Math.abs(aheadX) + halfWidth, Math.abs(aheadZ) + halfHeight);
+        } else {
+            changed = panAhead.clear();
+        }
+
+        int nextZoom = zoom + zoomDirection;
+        int nextTileZoom = Math.min(nextZoom, serverMaxZoom);
+        if (zoomDirection != 0 && now - zoomIntentAt < ZOOM_INTENT_NANOS
+                && nextZoom >= config.getMinZoom() && nextZoom <= config.getMaxZoom() && nextTileZoom != tileZoom) {
+            // Another step about the same anchor scales the view center's offset from it
+            double nextPixelsPerBlock = (double) tileSize / config.getBlocksPerTile(nextZoom);
+            double scale = pixelsPerBlock / nextPixelsPerBlock;
+            double nextCenterX = zoomAnchorX + (centerX - zoomAnchorX) * scale;
+            double nextCenterZ = zoomAnchorZ + (centerZ - zoomAnchorZ) * scale;
+            double nextHalfWidth = width / 2.0 / nextPixelsPerBlock;
+            double nextHalfHeight = height / 2.0 / nextPixelsPerBlock;
+            int nextTileBlocks = config.getBlocksPerTile(nextTileZoom);
+            changed |= zoomAhead.set(nextTileZoom,
+                    TileMath.tileCoord(nextCenterX - nextHalfWidth, nextTileBlocks),
+                    TileMath.tileCoord(nextCenterZ - nextHalfHeight, nextTileBlocks),
+                    TileMath.tileCoord(nextCenterX + nextHalfWidth, nextTileBlocks),
+                    TileMath.tileCoord(nextCenterZ + nextHalfHeight, nextTileBlocks));
+            reachBlocks = Math.max(reachBlocks, Math.max(Math.abs(nextCenterX - centerX) + nextHalfWidth,
+                    Math.abs(nextCenterZ - centerZ) + nextHalfHeight));
+        } else {
+            zoomDirection = 0;
+            changed |= zoomAhead.clear();
+        }
+
+        if (changed) {
+            tileManager.dropSpeculative(stillLikely);
+        }
+        if (changed || now - walkedAt >= REWALK_NANOS) {
+            walkedAt = now;
+            walk(panAhead);
+            walk(zoomAhead);
+        }
+        return (int) Math.ceil(reachBlocks / tileBlocks);
+    }
+
+    private void updateVelocity(long now) {
+        double seconds = (now - updatedAt) / 1e9;
+        updatedAt = now;
+        if (now - lastPanAt > PAN_IDLE_NANOS || seconds > 1) {
+            velocityX = 0;
+            velocityZ = 0;
+        } else if (seconds > 0) {
+            double alpha = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+            velocityX += alpha * (pendingPanX / seconds - velocityX);
+            velocityZ += alpha * (pendingPanZ / seconds - velocityZ);
+        }
+        pendingPanX = 0;
+        pendingPanZ = 0;
+    }
+
+    private void walk(TileRect rect) {
+        if (rect.empty) {
+            return;
+        }
+        for (int y = rect.minY; y <= rect.maxY; y++) {
+            for (int x = rect.minX; x <= rect.maxX; x++) {
+                tileManager.requestTile(rect.zoom, x, y, TileFetchScheduler.Priority.SPECULATIVE);
+            }
+        }
+    }
+
+    /**
+     * Forgets every prediction and drops the speculative fetches still queued for them, e.g.
+     * when the map closes.
+     */
+    public void clear() {
+        velocityX = 0;
+        velocityZ = 0;
+        zoomDirection = 0;
+        lastPanAt = 0;
+        panAhead.clear();
+        zoomAhead.clear();
+        tileManager.dropSpeculative(stillLikely);
+    }
+}
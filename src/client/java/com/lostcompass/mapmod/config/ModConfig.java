@@ -4,6 +4,7 @@ public class ModConfig {
     private String mapServerUrl = "https://map.lostcompass.world";
     private String tileUrlPattern = "/tiles/minecraft_overworld/{z}/{x}_{y}.png";
     private int tileSize = 512;
+    private int atlasPageSize = 4096; // Side of each tile atlas texture (8x8 tiles of 512px)
     private int maxZoom = 3;      // Max server-side zoom (actual tiles)
     private int extraZoom = 2;    // Extra zoom IN levels via client-side scaling (4-5)
     private int minZoom = -2;     // Extra zoom OUT levels via client-side scaling
@@ -12,7 +13,26 @@ public class ModConfig {
     private int minimapSize = 100;
     private float minimapOpacity = 0.9f;
     private int minimapMargin = 10;
-    private int tileCacheSize = 50;
+    private int tileCacheCpuBudgetMb = 192;  // Native RGBA copies of the atlas pages
+    private int tileCacheGpuBudgetMb = 192;  // Atlas page textures (a 4096px page is 64 MiB)
+    private boolean diskCacheEnabled = true;
+    private int diskCacheMaxAgeMinutes = 30; // Older disk tiles are revalidated with a conditional GET
+    private int notFoundRetryMinutes = 30;   // How long a 404 tile is left alone
+    private int fetchBackoffMaxSeconds = 300; // Cap for per-tile backoff after 5xx/timeouts
+    private int circuitBreakerThreshold = 5; // Consecutive host failures before all tile traffic pauses
+    private int maxConcurrentRequests = 16;  // Parallel HTTP/2 streams to the map host
+    private int uploadQueueCapacity = 32;    // Decoded tiles waiting for the render thread
+    private int uploadBudgetMicrosPerFrame = 2000; // Render-thread time spent uploading tiles per frame
+    private int uploadBudgetKbPerFrame = 4096;      // Texture bytes uploaded per frame (4 tiles of 512px)
+    private int playerPollMapSeconds = 2;     // Player poll interval while the full map is open
+    private int playerPollMinimapSeconds = 5; // ...while only the minimap is shown
+    private int townPollMapSeconds = 30;      // Town poll interval while the full map is open
+    private int townPollMinimapSeconds = 60;  // ...while only the minimap is shown
+    private int pollBackoffMaxFactor = 4;     // Unchanged polls stretch the interval up to this factor
+    private double downloadRequestsPerSecond = 4; // Request rate of bulk region downloads
+    private int downloadMaxTiles = 50_000;         // Largest region download accepted in one go
+    private int tileRefreshSeconds = 120; // Loaded tiles at the player or view center are re-checked this often (0 = never)
+    private int tileRefreshRadius = 6;    // ...tiles further away less often, out to this many tiles
 
     public String getMapServerUrl() {
         return mapServerUrl;
@@ -37,6 +57,14 @@ public class ModConfig {
         return tileSize;
     }
 
+    public int getAtlasPageSize() {
+        return atlasPageSize;
+    }
+
+    public void setAtlasPageSize(int atlasPageSize) {
+        this.atlasPageSize = atlasPageSize;
+    }
+
     public int getMaxZoom() {
         return maxZoom + extraZoom;  // Total max zoom including extra levels
     }
@@ -89,22 +117,178 @@ public class ModConfig {
         return minimapMargin;
     }
 
-    public int getTileCacheSize() {
-        return tileCacheSize;
+    public long getTileCacheCpuBudgetBytes() {
+        return tileCacheCpuBudgetMb * 1024L * 1024L;
+    }
+
+    public void setTileCacheCpuBudgetMb(int tileCacheCpuBudgetMb) {
+        this.tileCacheCpuBudgetMb = tileCacheCpuBudgetMb;
+    }
+
+    public long getTileCacheGpuBudgetBytes() {
+        return tileCacheGpuBudgetMb * 1024L * 1024L;
+    }
+
+    public void setTileCacheGpuBudgetMb(int tileCacheGpuBudgetMb) {
+        this.tileCacheGpuBudgetMb = tileCacheGpuBudgetMb;
+    }
+
+    public boolean isDiskCacheEnabled() {
+        return diskCacheEnabled;
+    }
+
+    public void setDiskCacheEnabled(boolean diskCacheEnabled) {
+        this.diskCacheEnabled = diskCacheEnabled;
+    }
+
+    public long getDiskCacheMaxAgeMillis() {
+        return diskCacheMaxAgeMinutes * 60_000L;
+    }
+
+    public void setDiskCacheMaxAgeMinutes(int diskCacheMaxAgeMinutes) {
+        this.diskCacheMaxAgeMinutes = diskCacheMaxAgeMinutes;
+    }
+
+    public long getNotFoundRetryMillis() {
+        return notFoundRetryMinutes * 60_000L;
+    }
+
+    public void setNotFoundRetryMinutes(int notFoundRetryMinutes) {
+        this.notFoundRetryMinutes = notFoundRetryMinutes;
+    }
+
+    public long getFetchBackoffMaxMillis() {
+        return fetchBackoffMaxSeconds * 1000L;
+    }
+
+    public void setFetchBackoffMaxSeconds(int fetchBackoffMaxSeconds) {
+        this.fetchBackoffMaxSeconds = fetchBackoffMaxSeconds;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public int getUploadQueueCapacity() {
+        return uploadQueueCapacity;
+    }
+
+    public void setUploadQueueCapacity(int uploadQueueCapacity) {
+        this.uploadQueueCapacity = uploadQueueCapacity;
+    }
+
+    public long getUploadBudgetNanosPerFrame() {
+        return uploadBudgetMicrosPerFrame * 1000L;
+    }
+
+    public void setUploadBudgetMicrosPerFrame(int uploadBudgetMicrosPerFrame) {
+        this.uploadBudgetMicrosPerFrame = uploadBudgetMicrosPerFrame;
+    }
+
+    public long getUploadBudgetBytesPerFrame() {
+        return uploadBudgetKbPerFrame * 1024L;
+    }
+
+    public void setUploadBudgetKbPerFrame(int uploadBudgetKbPerFrame) {
+        this.uploadBudgetKbPerFrame = uploadBudgetKbPerFrame;
+    }
+
+    public long getPlayerPollMapMillis() {
+        return playerPollMapSeconds * 1000L;
+    }
+
+    public void setPlayerPollMapSeconds(int playerPollMapSeconds) {
+        this.playerPollMapSeconds = playerPollMapSeconds;
+    }
+
+    public long getPlayerPollMinimapMillis() {
+        return playerPollMinimapSeconds * 1000L;
+    }
+
+    public void setPlayerPollMinimapSeconds(int playerPollMinimapSeconds) {
+        this.playerPollMinimapSeconds = playerPollMinimapSeconds;
+    }
+
+    public long getTownPollMapMillis() {
+        return townPollMapSeconds * 1000L;
+    }
+
+    public void setTownPollMapSeconds(int townPollMapSeconds) {
+        this.townPollMapSeconds = townPollMapSeconds;
+    }
+
+    public long getTownPollMinimapMillis() {
+        return townPollMinimapSeconds * 1000L;
+    }
+
+    public void setTownPollMinimapSeconds(int townPollMinimapSeconds) {
+        this.townPollMinimapSeconds = townPollMinimapSeconds;
+    }
+
+    public int getPollBackoffMaxFactor() {
+        return pollBackoffMaxFactor;
+    }
+
+    public void setPollBackoffMaxFactor(int pollBackoffMaxFactor) {
+        this.pollBackoffMaxFactor = pollBackoffMaxFactor;
+    }
+
+    public double getDownloadRequestsPerSecond() {
+        return downloadRequestsPerSecond;
+    }
+
+    public void setDownloadRequestsPerSecond(double downloadRequestsPerSecond) {
+        this.downloadRequestsPerSecond = downloadRequestsPerSecond;
+    }
+
+    public int getDownloadMaxTiles() {
+        return downloadMaxTiles;
+    }
+
+    public void setDownloadMaxTiles(int downloadMaxTiles) {
+        this.downloadMaxTiles = downloadMaxTiles;
+    }
+
+    public long getTileRefreshMillis() {
+        return tileRefreshSeconds * 1000L;
+    }
+
+    public void setTileRefreshSeconds(int tileRefreshSeconds) {
+        this.tileRefreshSeconds = tileRefreshSeconds;
+    }
+
+    public int getTileRefreshRadius() {
+        return tileRefreshRadius;
+    }
+
+    public void setTileRefreshRadius(int tileRefreshRadius) {
+        this.tileRefreshRadius = tileRefreshRadius;
     }
 
     public int getBlocksPerTile(int zoom) {
         // Clamp zoom to server range for base calculation
         int clampedZoom = Math.max(serverMinZoom, Math.min(zoom, maxZoom));
-        int baseBlocks = tileSize * (int) Math.pow(2, maxZoom - clampedZoom);
+        int baseBlocks = tileSize << (maxZoom - clampedZoom);
 
         // For extra zoom IN (above maxZoom): halve blocks per tile
         if (zoom > maxZoom) {
-            baseBlocks = baseBlocks / (int) Math.pow(2, zoom - maxZoom);
+            baseBlocks = baseBlocks >> (zoom - maxZoom);
         }
         // For extra zoom OUT (below serverMinZoom): double blocks per tile
         if (zoom < serverMinZoom) {
-            baseBlocks = baseBlocks * (int) Math.pow(2, serverMinZoom - zoom);
+            baseBlocks = baseBlocks << (serverMinZoom - zoom);
         }
         return Math.max(1, baseBlocks);
     }
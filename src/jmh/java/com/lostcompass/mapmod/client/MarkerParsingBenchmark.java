@@ -0,0 +1,139 @@
+package com.lostcompass.mapmod.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the marker feeds as {@link MarkerManager} does on every changed poll, and querying
+ * the town index the way the map views do. Payloads are generated in the shape the map server
+ * sends, including the fields the parser has to skip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MarkerParsingBenchmark {
+    private static final String[] SYLLABLES = {"ka", "ro", "vel", "mir", "ost", "an", "gra", "dor", "li", "sen"};
+
+    @Param({"200"})
+    public int players;
+
+    @Param({"5000"})
+    public int towns;
+
+    private byte[] playersJson;
+    private byte[] markersJson;
+    private MarkerIndex<MarkerManager.TownMarker> townIndex;
+    private final List<MarkerManager.TownMarker> queryOut = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        playersJson = playersPayload(random).getBytes(StandardCharsets.UTF_8);
+        markersJson = markersPayload(random).getBytes(StandardCharsets.UTF_8);
+
+        List<MarkerManager.TownMarker> parsed = parseTowns();
+        townIndex = MarkerIndex.build(parsed, MarkerManager.TownMarker::x, MarkerManager.TownMarker::z, 8, 1);
+    }
+
+    private String playersPayload(Random random) {
+        StringBuilder json = new StringBuilder("{\"max\":500,\"players\":[");
+        for (int i = 0; i < players; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"").append(name(random)).append(i)
+                    .append("\",\"uuid\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+                    .append("\",\"world\":\"minecraft_overworld\",\"armor\":").append(random.nextInt(21))
+                    .append(",\"health\":").append(random.nextInt(21))
+                    .append(",\"x\":").append(coordinate(random))
+                    .append(",\"y\":").append(64 + random.nextInt(100))
+                    .append(",\"z\":").append(coordinate(random))
+                    .append(",\"yaw\":").append(random.nextDouble() * 360 - 180)
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String markersPayload(Random random) {
+        StringBuilder json = new StringBuilder("[{\"id\":\"towny\",\"name\":\"Towns\",\"order\":0,\"markers\":[");
+        for (int i = 0; i < towns; i++) {
+            if (i > 0) json.append(',');
+            String town = capitalize(name(random)) + i;
+            json.append("{\"type\":\"icon\",\"point\":{\"x\":").append(coordinate(random))
+                    .append(",\"y\":64,\"z\":").append(coordinate(random))
+                    .append("},\"icon\":\"").append(i % 20 == 0 ? "capital_icon" : "town_icon")
+                    .append("\",\"anchor\":{\"x\":8,\"z\":8},\"size\":{\"x\":16,\"z\":16}")
+                    .append(",\"tooltip\":\"<div><b>").append(town).append("</b><br>Мэр: ").append(name(random))
+                    .append("<br>Жители: ");
+            int residents = 1 + random.nextInt(30);
+            for (int r = 0; r < residents; r++) {
+                if (r > 0) json.append(", ");
+                json.append(name(random));
+            }
+            json.append("<br>Основан: 2024-0").append(1 + random.nextInt(9)).append("</div>\"")
+                    .append(",\"popup\":\"<div class=\\\"town\\\">").append(town).append("</div>\"}");
+        }
+        json.append("]},{\"id\":\"border\",\"name\":\"World border\",\"markers\":[")
+                .append("{\"type\":\"rectangle\",\"points\":[{\"x\":-20000,\"z\":-20000},{\"x\":20000,\"z\":20000}]}]}]");
+        return json.toString();
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        int parts = 2 + random.nextInt(2);
+        for (int i = 0; i < parts; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return name.toString();
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static int coordinate(Random random) {
+        return random.nextInt(40_000) - 20_000;
+    }
+
+    @Benchmark
+    public List<MarkerManager.PlayerMarker> parsePlayers() throws IOException {
+        return MarkerJsonParser.parsePlayers(
+                new InputStreamReader(new ByteArrayInputStream(playersJson), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public List<MarkerManager.TownMarker> parseTowns() throws IOException {
+        return MarkerJsonParser.parseTowns(
+                new InputStreamReader(new ByteArrayInputStream(markersJson), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The towns on a full-screen map at a mid zoom, about 1900 by 1000 blocks.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int queryTownsInView() {
+        queryOut.clear();
+        return townIndex.query(-950, -500, 950, 500, queryOut);
+    }
+}
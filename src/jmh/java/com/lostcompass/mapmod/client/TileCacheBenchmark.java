@@ -0,0 +1,174 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory tile cache, alone and with readers contending with a writer, and the failure
+ * cache, which fetch workers write while the render thread reads it for every missing tile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileCacheBenchmark {
+    private static final long TILE_BYTES = 512 * 512 * 4;
+    private static final int RESIDENT = 192;
+
+    private record Tile(long bytes) implements TileCache.Sized {
+        @Override
+        public long cpuBytes() {
+            return bytes;
+        }
+
+        @Override
+        public long gpuBytes() {
+            return bytes;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CacheState {
+        final Tile tile = new Tile(TILE_BYTES);
+        final long[] resident = new long[RESIDENT];
+        TileCache<Tile> cache;
+        int next;
+        int nextX;
+
+        @Setup
+        public void setup() {
+            // Budget for exactly the resident set, so every further put evicts
+            cache = new TileCache<>(() -> RESIDENT * TILE_BYTES, () -> RESIDENT * TILE_BYTES, t -> {});
+            for (int i = 0; i < RESIDENT; i++) {
+                resident[i] = TileMath.pack(1, i % 16, i / 16);
+                cache.put(resident[i], tile);
+            }
+            nextX = 16;
+        }
+    }
+
+    @Benchmark
+    public Tile getHit(CacheState state) {
+        int i = state.next;
+        state.next = i + 1 == RESIDENT ? 0 : i + 1;
+        return state.cache.get(state.resident[i]);
+    }
+
+    @Benchmark
+    public Tile getMiss(CacheState state) {
+        return state.cache.get(TileMath.pack(2, state.next++, 0));
+    }
+
+    @Benchmark
+    public long putEvict(CacheState state) {
+        state.cache.put(TileMath.pack(1, state.nextX++ & 0xFFFFF, 0), state.tile);
+        return state.cache.getVersion();
+    }
+
+    @State(Scope.Group)
+    public static class SharedCacheState {
+        final Tile tile = new Tile(TILE_BYTES);
+        final long[] resident = new long[RESIDENT];
+        TileCache<Tile> cache;
+
+        @Setup
+        public void setup() {
+            cache = new TileCache<>(() -> RESIDENT * TILE_BYTES, () -> RESIDENT * TILE_BYTES, t -> {});
+            for (int i = 0; i < RESIDENT; i++) {
+                resident[i] = TileMath.pack(1, i % 16, i / 16);
+                cache.put(resident[i], tile);
+            }
+        }
+    }
+
+    /**
+     * Readers (render thread, off-thread lookups) hitting while a writer keeps evicting.
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Tile contendedGet(SharedCacheState state, Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = i + 1 == RESIDENT ? 0 : i + 1;
+        return state.cache.get(state.resident[i]);
+    }
+
+    /**
+     * Writer side: uploads replacing the resident set a tile at a time. The keys cycle over the
+     * resident ones, so readers keep both hitting and missing.
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public long contendedPut(SharedCacheState state, Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = i + 1 == RESIDENT * 2 ? 0 : i + 1;
+        long key = i < RESIDENT ? state.resident[i] : TileMath.pack(2, i, 0);
+        state.cache.put(key, state.tile);
+        return state.cache.getVersion();
+    }
+
+    @State(Scope.Group)
+    public static class FailureState {
+        final TileManager.TileKey[] keys = new TileManager.TileKey[1024];
+        final long[] packed = new long[keys.length];
+        TileFailureCache failures;
+
+        @Setup
+        public void setup() {
+            failures = new TileFailureCache(new ModConfig());
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new TileManager.TileKey(1, i % 32, i / 32);
+                packed[i] = keys[i].packed();
+                if (i % 4 == 0) {
+                    failures.recordTransient(keys[i]);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    /**
+     * Render thread side: the check every missing tile makes before it is re-requested.
+     */
+    @Benchmark
+    @Group("failures")
+    @GroupThreads(3)
+    public boolean failureLookup(FailureState state, Cursor cursor) {
+        return state.failures.isBlocked(state.packed[cursor.next++ & (state.packed.length - 1)]);
+    }
+
+    /**
+     * Fetch worker side: tiles failing and recovering.
+     */
+    @Benchmark
+    @Group("failures")
+    @GroupThreads(1)
+    public int failureRecord(FailureState state, Cursor cursor) {
+        TileManager.TileKey key = state.keys[cursor.next++ & (state.keys.length - 1)];
+        if ((cursor.next & 1) == 0) {
+            state.failures.recordTransient(key);
+        } else {
+            state.failures.recordSuccess(key);
+        }
+        return state.failures.size();
+    }
+}
@@ -0,0 +1,67 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-tile arithmetic that runs for every visible tile every frame, plus URL building on the
+ * fetch path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TileMathBenchmark {
+    private ModConfig config;
+    private int zoom;
+    private double worldX;
+    private double worldZ;
+
+    @Setup
+    public void setup() {
+        config = new ModConfig();
+        zoom = config.getDefaultZoom();
+        worldX = -12_345.6;
+        worldZ = 54_321.9;
+    }
+
+    @Benchmark
+    public int blocksPerTile() {
+        // Walk the whole zoom range so no single branch is constant-folded
+        int sum = 0;
+        for (int z = config.getMinZoom(); z <= config.getMaxZoom(); z++) {
+            sum += config.getBlocksPerTile(z);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public String tileUrl() {
+        return config.getTileUrl(zoom, (int) worldX >> 9, (int) worldZ >> 9);
+    }
+
+    @Benchmark
+    public long worldToPackedKey() {
+        int blocksPerTile = config.getBlocksPerTile(zoom);
+        return TileMath.pack(zoom, TileMath.tileCoord(worldX, blocksPerTile), TileMath.tileCoord(worldZ, blocksPerTile));
+    }
+
+    @Benchmark
+    public int unpackKey() {
+        long key = TileMath.pack(zoom, (int) worldX, (int) worldZ);
+        return TileMath.zoom(key) + TileMath.x(key) + TileMath.y(key);
+    }
+}
@@ -0,0 +1,316 @@
+package com.lostcompass.mapmod.client;
+
+import com.lostcompass.mapmod.config.ModConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of {@link MapScreen} through the same calls it makes, minus the GUI draw calls: the
+ * {@link TileManager#createViewTracker view tracker}, {@link ViewPrefetcher}, fetch focus,
+ * {@link TileManager#getTile} into a {@link TileBatch}, {@link LabelLayout} and the
+ * {@link PlayerSnapshot} query. Every tile the view can reach is loaded, as on a map that has
+ * been open for a while, so no fetch is ever queued.
+ * <ul>
+ *     <li>{@code panningFrame} moves the view every frame, crossing tile boundaries and
+ *     re-placing labels.</li>
+ *     <li>{@code idleFrame} keeps the view still while players interpolate, and also updates
+ *     the map HUD and minimap status lines, which are cached until their numbers change.</li>
+ *     <li>{@code fallbackFrame} draws a screen of missing tiles from their loaded parents with
+ *     {@link TileManager#drawFallback}.</li>
+ * </ul>
+ * None of these may allocate: a measurement iteration fails if the benchmark thread allocated
+ * more than {@link #MAX_BYTES_PER_FRAME} per frame, the figure the GC profiler reports as
+ * gc.alloc.rate.norm. The HUD's view coordinate line is rebuilt whenever the view moves a
+ * block, so it is only part of the idle frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VisibleTilesBenchmark {
+    private static final double MAX_BYTES_PER_FRAME = 1;
+    private static final int PAN_BLOCKS = 2048;
+    // Fallback tiles are walked this many tiles away from the loaded ones
+    private static final int FALLBACK_OFFSET = 1 << 12;
+    private static final int TOWNS = 2000;
+    private static final int PLAYERS = 200;
+
+    private static final TextMetrics FIXED_WIDTH_FONT = new TextMetrics() {
+        @Override
+        public int width(String text) {
+            return text.length() * 6;
+        }
+
+        @Override
+        public int fontHeight() {
+            return 9;
+        }
+    };
+
+    // GUI-scaled screen sizes: 1080p at scale 2 and 4K at scale 2
+    @Param({"960x540", "1920x1080"})
+    public String screen;
+
+    @Param({"1", "4"})
+    public int zoom;
+
+    private ModConfig config;
+    private MapHttpClient http;
+    private TileManager tileManager;
+    private MarkerManager markerManager;
+    private MapRenderer mapRenderer;
+    private TileViewTracker tracker;
+    private ViewPrefetcher prefetcher;
+    private final TileBatch batch = new TileBatch();
+    private final LabelLayout labelLayout = new LabelLayout();
+    private MapScreen.HudText hudText;
+    private final List<PlayerSnapshot.Entry> visiblePlayers = new ArrayList<>();
+    private MarkerIndex<MarkerManager.TownMarker> townIndex;
+    private PlayerSnapshot players;
+
+    private int width;
+    private int height;
+    private int tileZoom;
+    private double viewCenterX;
+    private double viewCenterZ;
+
+    private long frames;
+    private long allocatedAtStart;
+
+    @Setup
+    public void setup() {
+        config = new ModConfig();
+        config.setDiskCacheEnabled(false);
+        // Nothing may be evicted: eviction frees atlas slots on the render thread. The tiles
+        // have no atlas page, so each is charged a whole page
+        config.setTileCacheCpuBudgetMb(Integer.MAX_VALUE);
+        config.setTileCacheGpuBudgetMb(Integer.MAX_VALUE);
+        width = Integer.parseInt(screen.substring(0, screen.indexOf('x')));
+        height = Integer.parseInt(screen.substring(screen.indexOf('x') + 1));
+
+        MapMetrics metrics = new MapMetrics();
+        http = new MapHttpClient(config);
+        tileManager = new TileManager(config, http, metrics);
+        markerManager = new MarkerManager(config, http, metrics);
+        mapRenderer = new MapRenderer(tileManager, markerManager, config);
+        tracker = tileManager.createViewTracker(MapScreen.TRACKER_MARGIN);
+        prefetcher = new ViewPrefetcher(tileManager, config);
+        hudText = new MapScreen.HudText(config);
+
+        tileZoom = Math.min(zoom, config.getServerMaxZoom());
+        int tileBlocks = config.getBlocksPerTile(tileZoom);
+        double pixelsPerBlock = (double) config.getTileSize() / config.getBlocksPerTile(zoom);
+        int reach = MapScreen.TRACKER_MARGIN + 1;
+        int minTileX = TileMath.tileCoord(-width / 2.0 / pixelsPerBlock, tileBlocks) - reach;
+        int minTileY = TileMath.tileCoord(-height / 2.0 / pixelsPerBlock, tileBlocks) - reach;
+        int maxTileX = TileMath.tileCoord(PAN_BLOCKS + width / 2.0 / pixelsPerBlock, tileBlocks) + reach;
+        int maxTileY = TileMath.tileCoord(PAN_BLOCKS + height / 2.0 / pixelsPerBlock, tileBlocks) + reach;
+        for (int x = minTileX; x <= maxTileX; x++) {
+            for (int y = minTileY; y <= maxTileY; y++) {
+                tileManager.putLoaded(tileZoom, x, y, tile());
+                // Only the parents of the fallback area are loaded
+                int parentX = (x + FALLBACK_OFFSET) >> 1;
+                int parentY = (y + FALLBACK_OFFSET) >> 1;
+                if (tileManager.getTile(tileZoom - 1, parentX, parentY) == null) {
+                    tileManager.putLoaded(tileZoom - 1, parentX, parentY, tile());
+                }
+            }
+        }
+
+        List<MarkerManager.TownMarker> towns = new ArrayList<>();
+        for (int i = 0; i < TOWNS; i++) {
+            towns.add(new MarkerManager.TownMarker("Town " + i, i % 50 == 0 ? "capital" : "town",
+                    coordinate(i * 7919L), coordinate(i * 104729L), i % 40));
+        }
+        townIndex = MarkerIndex.build(towns, MarkerManager.TownMarker::x, MarkerManager.TownMarker::z, 8, 1);
+
+        // Two polls at the longest interpolated interval, so players are still moving when
+        // the measurement runs
+        List<MarkerManager.PlayerMarker> before = new ArrayList<>();
+        List<MarkerManager.PlayerMarker> after = new ArrayList<>();
+        for (int i = 0; i < PLAYERS; i++) {
+            double x = coordinate(i * 15485863L);
+            double z = coordinate(i * 32452843L);
+            before.add(new MarkerManager.PlayerMarker("Player" + i, "uuid-" + i, x, 64, z, 0));
+            after.add(new MarkerManager.PlayerMarker("Player" + i, "uuid-" + i, x + 20, 64, z - 20, 90));
+        }
+        long now = System.currentTimeMillis();
+        PlayerSnapshot first = PlayerSnapshot.next(PlayerSnapshot.EMPTY, before, marker -> false, 0, now - 30_000);
+        players = PlayerSnapshot.next(first, after, marker -> false, now - 30_000, now);
+    }
+
+    private TileManager.CachedTile tile() {
+        // No atlas page: only TileBatch.flush, which draws, dereferences it
+        return new TileManager.CachedTile(tileManager.getAtlas(), new TileAtlas.Slot(null, 0, 0, 0),
+                config.getTileSize(), config.getTileSize(), TileManager.NO_CONTENT_HASH);
+    }
+
+    private static double coordinate(long seed) {
+        return Math.floorMod(seed, PAN_BLOCKS + 4096) - 2048;
+    }
+
+    @TearDown
+    public void tearDown() {
+        // Not TileManager.shutdown: it frees the atlas on the render thread
+        tileManager.getScheduler().shutdown();
+        markerManager.shutdown();
+        http.shutdown();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        frames = 0;
+        allocatedAtStart = allocatedBytes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkAllocation(IterationParams iteration) {
+        if (iteration.getType() != IterationType.MEASUREMENT || frames == 0) {
+            return;
+        }
+        double perFrame = (double) (allocatedBytes() - allocatedAtStart) / frames;
+        if (perFrame > MAX_BYTES_PER_FRAME) {
+            throw new IllegalStateException(String.format(
+                    "%s at zoom %d allocated %.1f bytes per frame", screen, zoom, perFrame));
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    @Benchmark
+    public int panningFrame() {
+        viewCenterX = (viewCenterX + 7.3) % PAN_BLOCKS;
+        viewCenterZ = (viewCenterZ + 3.1) % PAN_BLOCKS;
+        return mapFrame();
+    }
+
+    @Benchmark
+    public int idleFrame() {
+        viewCenterX = PAN_BLOCKS / 2.0;
+        viewCenterZ = PAN_BLOCKS / 2.0;
+        int drawn = mapFrame();
+        hudText.update(FIXED_WIDTH_FONT, viewCenterX, viewCenterZ, zoom, players.getPlayers().size(),
+                townIndex.size(), true, viewCenterX, viewCenterZ);
+        mapRenderer.updateStatusText(FIXED_WIDTH_FONT, townIndex, viewCenterX, viewCenterZ);
+        return drawn + hudText.playerCoordsWidth;
+    }
+
+    @Benchmark
+    public int fallbackFrame() {
+        frames++;
+        int tileSize = config.getTileSize();
+        int tileBlocks = config.getBlocksPerTile(tileZoom);
+        double pixelsPerBlock = (double) tileSize / config.getBlocksPerTile(zoom);
+        int displayTileSize = (int) (tileBlocks * pixelsPerBlock);
+        int columns = width / displayTileSize + 2;
+        int rows = height / displayTileSize + 2;
+
+        int covered = 0;
+        batch.begin(0, 0, width, height);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (tileManager.drawFallback(batch, tileZoom, FALLBACK_OFFSET + column, FALLBACK_OFFSET + row,
+                        column * displayTileSize - displayTileSize / 2, row * displayTileSize - displayTileSize / 2,
+                        displayTileSize)) {
+                    covered++;
+                }
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * MapScreen's renderMap and renderMarkers, without the draw calls.
+     */
+    private int mapFrame() {
+        frames++;
+        int tileSize = config.getTileSize();
+        double pixelsPerBlock = (double) tileSize / config.getBlocksPerTile(zoom);
+        int tileBlocks = config.getBlocksPerTile(tileZoom);
+        int displayTileSize = zoom > tileZoom ? tileSize << (zoom - tileZoom) : tileSize;
+
+        int centerTileX = TileMath.tileCoord(viewCenterX, tileBlocks);
+        int centerTileY = TileMath.tileCoord(viewCenterZ, tileBlocks);
+        double tileOffsetX = (viewCenterX - centerTileX * tileBlocks) * pixelsPerBlock;
+        double tileOffsetY = (viewCenterZ - centerTileY * tileBlocks) * pixelsPerBlock;
+
+        double halfWidthBlocks = width / 2.0 / pixelsPerBlock;
+        double halfHeightBlocks = height / 2.0 / pixelsPerBlock;
+        tracker.update(tileZoom,
+                TileMath.tileCoord(viewCenterX - halfWidthBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterZ - halfHeightBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterX + halfWidthBlocks, tileBlocks),
+                TileMath.tileCoord(viewCenterZ + halfHeightBlocks, tileBlocks));
+        int minTileX = tracker.getMinX();
+        int minTileY = tracker.getMinY();
+        int maxTileX = tracker.getMaxX();
+        int maxTileY = tracker.getMaxY();
+
+        int predictedReach = prefetcher.update(viewCenterX, viewCenterZ, zoom, width, height);
+        int trackedReach = Math.max(Math.max(centerTileX - minTileX, maxTileX - centerTileX),
+                Math.max(centerTileY - minTileY, maxTileY - centerTileY)) + MapScreen.TRACKER_MARGIN;
+        tileManager.setViewFocus(viewCenterX, viewCenterZ, tileZoom, Math.max(trackedReach, predictedReach) + 1);
+
+        int drawn = 0;
+        batch.begin(0, 0, width, height);
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                int tileScreenX = (int) (width / 2.0 - tileOffsetX + (tileX - centerTileX) * displayTileSize);
+                int tileScreenY = (int) (height / 2.0 - tileOffsetY + (tileY - centerTileY) * displayTileSize);
+                TileManager.CachedTile tile = tileManager.getTile(tileZoom, tileX, tileY);
+                if (tile != null) {
+                    batch.add(tile, 0, 0, tileSize, tileScreenX, tileScreenY, displayTileSize);
+                    drawn++;
+                } else if (tileManager.drawFallback(batch, tileZoom, tileX, tileY,
+                        tileScreenX, tileScreenY, displayTileSize)) {
+                    drawn++;
+                }
+            }
+        }
+
+        labelLayout.update(FIXED_WIDTH_FONT, townIndex, viewCenterX, viewCenterZ,
+                pixelsPerBlock, zoom, width, height);
+        for (int i = 0; i < labelLayout.getTownCount(); i++) {
+            if (labelLayout.getTownLabel(i) != null) {
+                drawn++;
+            }
+        }
+
+        double alpha = players.alpha(System.currentTimeMillis());
+        visiblePlayers.clear();
+        players.queryOthers(viewCenterX - halfWidthBlocks, viewCenterZ - halfHeightBlocks,
+                viewCenterX + halfWidthBlocks, viewCenterZ + halfHeightBlocks, visiblePlayers);
+        for (int i = 0; i < visiblePlayers.size(); i++) {
+            PlayerSnapshot.Entry other = visiblePlayers.get(i);
+            int screenX = (int) (width / 2.0 + (other.x(alpha) - viewCenterX) * pixelsPerBlock);
+            int screenY = (int) (height / 2.0 + (other.z(alpha) - viewCenterZ) * pixelsPerBlock);
+            if (screenX >= 0 && screenX <= width && screenY >= 0 && screenY <= height) {
+                drawn += labelLayout.playerLabel(FIXED_WIDTH_FONT, other.marker().name()).width();
+            }
+        }
+        return drawn;
+    }
+}